@@ -0,0 +1,82 @@
+package no.toll.jsondoc;
+
+import net.jimblackler.jsonschemafriend.GenerationException;
+import net.jimblackler.jsonschemafriend.Schema;
+import net.jimblackler.jsonschemafriend.SchemaStore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/** A schema loaded once, to be shared by every data file validated against it.
+ *  Immutable: any number of threads may validate against the same instance, see JsonDocEngine. */
+public final class CompiledSchema {
+    private final Schema schema; // null with engine=native
+    private final SchemaRule rules; // only with engine=native
+    private final String hash;
+    private final Context context;
+
+    private CompiledSchema(final Schema schema, final SchemaRule rules, final String hash, final Context context) {
+        this.schema = schema;
+        this.rules = rules;
+        this.hash = hash;
+        this.context = context;
+    }
+
+    /** Load directly from the schema text, no temporary file needed. */
+    static CompiledSchema parse(final String schemaJson) throws GenerationException {
+        return parse(schemaJson, new Context(Context.SCHEMA_MODE));
+    }
+
+    /** As parse(schemaJson), or compiled from the Node tree for the native validator if engine=native. */
+    static CompiledSchema parse(final String schemaJson, final Context context) throws GenerationException {
+        final var hash = Hashes.sha256(schemaJson);
+        if (StreamingValidator.isSelected(context))
+            return new CompiledSchema(null, SchemaRule.compile(schemaJson), hash, context);
+        final SchemaStore schemaStore = new SchemaStore();
+        return new CompiledSchema(schemaStore.loadSchemaJson(schemaJson), null, hash, context);
+    }
+
+    Schema schema() { return schema; }
+    SchemaRule rules() { return rules; }
+    boolean isNative() { return rules != null; }
+    /** Identifies the clean schema text. */ String hash() { return hash; }
+
+    /** Validate a single document, read from the stream (which is not closed). */
+    public ValidationResult validate(final InputStream in) {
+        final var result = new ValidationResult("input");
+        try { return new GeneralJSONValidator(context).validateStream(this, in, result); }
+        catch (final IOException e) { return result.add(e.getMessage()).fail(); }
+    }
+
+    /** Validate a single file, as VALIDATE would (JSON Lines, mmap=, cache= etc. from the settings). */
+    public ValidationResult validate(final Path file) {
+        return new GeneralJSONValidator(context).validateFile(this, file.toString());
+    }
+
+    /** Validate all the files, as VALIDATE would (threads=, failFast= etc. from the settings).
+     *  The result holds the messages of every file, and is ok only if all of them are. */
+    public ValidationResult validateAll(final Stream<Path> files) {
+        final var all = new ValidationResult("files");
+        final int maxErrors = new ErrorBudget(context).maxErrors;
+        final Consumer<ValidationResult> collect = r -> all.addAll(r, maxErrors);
+        return all.addAll(GeneralJSONValidator.validate(this, files.map(Path::toString), "files", context, collect,
+                "No files to validate"));
+    }
+}
+
+//   Copyright 2021-2023, Lars Reed -- lars-at-kalars.net
+//
+//           Licensed under the Apache License, Version 2.0 (the "License");
+//           you may not use this file except in compliance with the License.
+//           You may obtain a copy of the License at
+//
+//           http://www.apache.org/licenses/LICENSE-2.0
+//
+//           Unless required by applicable law or agreed to in writing, software
+//           distributed under the License is distributed on an "AS IS" BASIS,
+//           WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//           See the License for the specific language governing permissions and
+//           limitations under the License.
@@ -9,21 +9,40 @@ import java.util.Optional;
 @SuppressWarnings({"StaticMethodOnlyUsedInOneClass", "SameParameterValue"})
 class Context {
 
+    static final String CACHE = "cache";
+    static final String CACHE_MAX_MB = "cacheMaxMB";
     static final String CODE = "code";
     static final String EMBED_ROWS = "embedUpToRows";
+    static final String ENGINE = "engine";
     static final String EXCLUDE_COLUMNS = "excludeColumns";
+    static final String FAIL_FAST = "failFast";
     static final String FILES = "files";
+    static final String FORMATS = "formats";
     static final String GEN_COMM = "generatorComment";
     public static final String JAVA = "Java";
     static final String LANG = "lang";
     static final String LANG_EN = "en";
+    static final String MAX_ERRORS = "maxErrors";
+    static final String MAX_LINE_ERRORS = "maxLineErrors";
+    static final String MMAP = "mmap";
     static final String MODE = "mode";
+    static final String NDJSON = "ndjson";
+    static final String OUT = "out";
+    static final String OUT_DIR = "outDir";
     static final String PACKAGE = "package";
+    static final String PORT = "port";
+    static final String REPORT = "report";
+    static final String ROOT = "root";
     static final String SAMPLE_COLUMNS = "sampleColumns";
     static final String SCHEMA_MODE = "SCHEMA";
     static final String SKIP_TABLES = "skipTables";
+    static final String STATS = "stats";
+    static final String STATS_FILE = "statsFile";
     static final String STRICT = "strict";
+    static final String THREADS = "threads";
     static final String VARIANT = "variant";
+    static final String VIRTUAL = "virtual";
+    static final String WATCH = "watch";
 
     private final Map<String, String> map = new LinkedHashMap<>();
 
@@ -50,6 +69,17 @@ class Context {
     boolean contains(final String key) { return map.containsKey(key); }
     @Override public String toString() { return "Context{"  + map + '}'; }
 
+    /** All settings except the given keys, in a stable order -- e.g. to identify cached results. */
+    String signature(final String... except) {
+        final var ignored = Arrays.asList(except);
+        final var sb = new StringBuilder();
+        map.entrySet().stream()
+                .filter(e -> !ignored.contains(e.getKey()))
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(e -> sb.append(e.getKey()).append('=').append(e.getValue()).append('\n'));
+        return sb.toString();
+    }
+
     /** Does the given key exist in the context, and does it contain the given value toMatch?
      *  The value is read as comma-separated, and case-insensitive. */
     Optional<Boolean> anyMatch(final String key, final String toMatch) {
@@ -2,121 +2,341 @@ package no.toll.jsondoc;
 
 
 import net.jimblackler.jsonschemafriend.GenerationException;
-import net.jimblackler.jsonschemafriend.Schema;
-import net.jimblackler.jsonschemafriend.SchemaStore;
 import net.jimblackler.jsonschemafriend.ValidationException;
 import net.jimblackler.jsonschemafriend.Validator;
 
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.Arrays;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 class GeneralJSONValidator {
 
-    private ValidationResult result = new ValidationResult("input");
+    private static final int DEFAULT_MAX_LINE_ERRORS = 100;
+    private static final int VIRTUAL_WINDOW = 256;
+    private static final List<String> NDJSON_SUFFIXES = List.of(".jsonl", ".ndjson");
+
+    private final Validator validator = new Validator();
+    private final boolean ndjson;
+    private final boolean mmap;
+    private final ValidationCache cache; // null if not used
+    private final boolean timed;
+    private long readNanos = 0; // for the current file
+    private final int maxLineErrors;
+
+    GeneralJSONValidator() { this(new Context(Context.SCHEMA_MODE)); }
+
+    GeneralJSONValidator(final Context context) {
+        ndjson = context.value(Context.NDJSON).map(Boolean::parseBoolean).orElse(false);
+        mmap = context.value(Context.MMAP).map(Boolean::parseBoolean).orElse(false);
+        cache = ValidationCache.of(context).orElse(null);
+        timed = ValidationStats.enabled(context);
+        final var budget = new ErrorBudget(context);
+        final int lineErrors = context.value(Context.MAX_LINE_ERRORS).map(Integer::parseInt).orElse(DEFAULT_MAX_LINE_ERRORS);
+        if (budget.failFast) maxLineErrors = 1;
+        else if (budget.maxErrors > 0) maxLineErrors = Math.min(lineErrors, budget.maxErrors);
+        else maxLineErrors = lineErrors;
+    }
 
     static ValidationResult validate(final String inputfile, final Context context) {
+        final CompiledSchema schema;
+        try { schema = compile(inputfile, context); } // once, shared by all files
+        catch (final GenerationException e) { return new ValidationResult(inputfile).fail().add(e.getMessage()); }
+        return validate(schema, inputfile, context);
+    }
+
+    /** Create the clean schema from the extended input schema, and load it for validation. */
+    static CompiledSchema compile(final String inputfile, final Context context) throws GenerationException {
         final var parser = new JsonDocParser(context.clone(Context.SCHEMA_MODE));
         final var printer = new SchemaPrinter(parser.parseFile(inputfile));
-        final String pureSchema = makeTempSchema(printer.create());
+        return CompiledSchema.parse(printer.create(), context);
+    }
+
+    /** Validate the files= list against an already compiled schema, collecting all messages. */
+    static ValidationResult validate(final CompiledSchema schema, final String inputfile, final Context context) {
+        final var all = new ValidationResult(inputfile);
+        final int maxErrors = new ErrorBudget(context).maxErrors;
+        final var run = validate(schema, inputfile, context, r -> all.addAll(r, maxErrors));
+        return all.addAll(run);
+    }
 
-        final var validator = new GeneralJSONValidator();
+    /** report=: validate the files= list, writing each result to the report as soon as it is available. */
+    static ValidationResult validate(final String inputfile, final Context context, final ValidationReport report) {
+        report.start(inputfile);
+        ValidationResult run;
+        try { run = validate(compile(inputfile, context), inputfile, context, report::file); }
+        catch (final GenerationException e) { run = new ValidationResult(inputfile).fail().add(e.getMessage()); }
+        report.finish(run);
+        return run;
+    }
+
+    /** Validate the files= list, handing each file's result to the sink in input order.
+     *  The returned result is ok only if all files were, and holds only messages about the run itself. */
+    static ValidationResult validate(final CompiledSchema schema, final String inputfile, final Context context,
+                                     final Consumer<ValidationResult> sink) {
         final var optFiles = context.value(Context.FILES);
-        if (optFiles.isEmpty())
+        if (optFiles.isEmpty() || optFiles.get().isBlank())
             return new ValidationResult(inputfile).fail().add("No " + Context.FILES + "= specified");
-        final var files = Arrays.stream(optFiles.get().split(", *")).toList();
-        if (files.isEmpty()) return new ValidationResult(inputfile).fail().add("No " + Context.FILES + "= specified");
+        return validate(schema, InputFiles.expand(optFiles.get()), inputfile, context, sink,
+                        "No files found for " + Context.FILES + "=" + optFiles.get());
+    }
 
-        ValidationResult res = new ValidationResult(""); // forgotten on first file
-        for (final var file : files)  res = validator.validateFile(pureSchema, file);
-        return res;
+    /** Validate the given files, as validate(schema, inputfile, context, sink). */
+    static ValidationResult validate(final CompiledSchema schema, final Stream<String> fileNames, final String inputfile,
+                                     final Context context, final Consumer<ValidationResult> sink,
+                                     final String noFiles) {
+        final var run = new ValidationResult(inputfile);
+        final var stats = ValidationStats.enabled(context) ? new ValidationStats() : null;
+        final Consumer<ValidationResult> each = r -> {
+            if (!r.isOk()) run.fail();
+            if (stats != null && r.stats() != null) stats.record(r.stats());
+            sink.accept(r);
+        };
+        final var budget = new ErrorBudget(context);
+        final var threads = context.value(Context.THREADS);
+        final var count = new AtomicInteger();
+        try (final var files = fileNames.takeWhile(f -> budget.hasRoom()).peek(f -> count.incrementAndGet())) {
+            if (threads.isEmpty()) {
+                final var validator = new GeneralJSONValidator(context);
+                files.forEach(file -> each.accept(budget.record(validator.validateFile(schema, file))));
+            }
+            else validateParallel(schema, files, context, threads.get(), budget, each);
+        }
+        catch (final UncheckedIOException e) {
+            return run.fail().add(e.getCause().toString());
+        }
+        if (count.get() == 0) return run.fail().add(noFiles);
+        if (!budget.hasRoom()) run.add(budget.stopReason());
+        if (stats != null) stats.finish(context);
+        ValidationCache.of(context).ifPresent(ValidationCache::evict);
+        return run;
     }
 
-    static String makeTempSchema(final String data)  {
-        try {
-            final Path jschema = Files.createTempFile("jschema", ".json");
-            jschema.toFile().deleteOnExit();
-            try (final OutputStream out = Files.newOutputStream(jschema)) {
-                out.write(data.getBytes());
-                return jschema.toString();
+    /** Validate files concurrently, passing the results on in the same order as the input.
+     *  Files are submitted as they are found, so work starts before a directory walk is complete,
+     *  but at most window(threads) at a time: each result is passed on as soon as the files before it are,
+     *  and only that many are held. When the error budget runs out, files not yet started are skipped. */
+    private static void validateParallel(final CompiledSchema schema, final Stream<String> files,
+                                         final Context context, final String threads,
+                                         final ErrorBudget budget, final Consumer<ValidationResult> sink) {
+        final int window = window(threads);
+        final Deque<Pending> pending = new ArrayDeque<>();
+        try (final var executor = executor(threads)) {
+            for (final var it = files.iterator(); it.hasNext(); ) {
+                while (!pending.isEmpty() && (pending.size() >= window || pending.peek().future().isDone()))
+                    pending.poll().passOn(sink);
+                final var file = it.next();
+                pending.add(new Pending(file, executor.submit(() -> budget.hasRoom()
+                        ? budget.record(new GeneralJSONValidator(context).validateFile(schema, file))
+                        : null)));
+            }
+            var cancelled = false;
+            while (!pending.isEmpty()) {
+                if (!cancelled && !budget.hasRoom()) {
+                    pending.forEach(p -> p.future().cancel(true));
+                    cancelled = true;
+                }
+                pending.poll().passOn(sink);
             }
         }
-        catch (final IOException e) {
-            throw new RuntimeException(e);
+    }
+
+    /** A file submitted for validation. */
+    private record Pending(String file, Future<ValidationResult> future) {
+        void passOn(final Consumer<ValidationResult> sink) {
+            final var result = result(future, file);
+            if (result != null) sink.accept(result);
         }
     }
 
-    ValidationResult validateString(final String schemaFile, final String data) {
+    /** How many files may be in progress or waiting to be passed on. */
+    private static int window(final String threads) {
+        if (Context.VIRTUAL.equalsIgnoreCase(threads)) return VIRTUAL_WINDOW;
+        return 2 * Integer.parseInt(threads);
+    }
+
+    /** threads=: a number, or virtual. */
+    static ExecutorService executor(final String threads) {
+        if (Context.VIRTUAL.equalsIgnoreCase(threads)) return Executors.newVirtualThreadPerTaskExecutor();
+        return Executors.newFixedThreadPool(Integer.parseInt(threads));
+    }
+
+    /** The result from a file, or null if it was skipped or cancelled. */
+    private static ValidationResult result(final Future<ValidationResult> future, final String file) {
+        if (future.isCancelled()) return null;
         try {
-            final SchemaStore schemaStore = new SchemaStore(); // Initialize a SchemaStore.
-            final Schema schema = schemaStore.loadSchema(Paths.get(schemaFile).toUri());
-            final Validator validator = new Validator(); // Create a validator.
-            validator.validateJson(schema, data);
-            return result;
+            return future.get();
         }
-        catch (final GenerationException e) {
-            return result.add(e.getMessage()).fail();
+        catch (final CancellationException e) {
+            return null;
+        }
+        catch (final ExecutionException e) {
+            return new ValidationResult(file).add(e.getCause().toString()).fail();
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    ValidationResult validateString(final CompiledSchema schema, final String data) {
+        return validateString(schema, data, new ValidationResult("input"));
+    }
+
+    private ValidationResult validateString(final CompiledSchema schema, final String data,
+                                            final ValidationResult result) {
+        final var errors = check(schema, data);
+        errors.forEach(result::add);
+        return errors.isEmpty() ? result : result.fail();
+    }
+
+    /** Messages for a single document, empty if it is valid. */
+    private List<String> check(final CompiledSchema schema, final String data) {
+        if (schema.isNative()) return new StreamingValidator(schema.rules(), maxLineErrors).validate(data);
+        try {
+            validator.validateJson(schema.schema(), data);
+            return List.of();
         }
         catch (final ValidationException e) {
-            handle(e);
-            return result.fail();
+            return List.of(e.getMessage());
         }
     }
 
-    ValidationResult validateFile(final String schemaFile, final String dataFile) {
-        result = new ValidationResult(dataFile, result);
+    ValidationResult validateFile(final CompiledSchema schema, final String dataFile) {
+        if (!timed) return validateCached(schema, dataFile);
+        readNanos = 0;
+        final long start = System.nanoTime();
+        final var result = validateCached(schema, dataFile);
+        final long nanos = System.nanoTime() - start;
+        return result.stats(new FileStats(dataFile, size(dataFile), readNanos, nanos - readNanos, result.size()));
+    }
+
+    private static long size(final String dataFile) {
+        try { return Files.size(Path.of(dataFile)); }
+        catch (final IOException e) { return 0; }
+    }
+
+    private ValidationResult validateCached(final CompiledSchema schema, final String dataFile) {
+        if (cache == null) return validateUncached(schema, dataFile);
+        final String key;
+        final var settings = isLines(dataFile) + "," + maxLineErrors + "," + schema.isNative();
+        try { key = cache.key(schema, Path.of(dataFile), settings); }
+        catch (final IOException e) { return new ValidationResult(dataFile).add(e.getMessage()).fail(); }
+        final var hit = cache.lookup(key, dataFile);
+        if (hit.isPresent()) return hit.get();
+        final var result = validateUncached(schema, dataFile);
+        cache.store(key, result);
+        return result;
+    }
+
+    private ValidationResult validateUncached(final CompiledSchema schema, final String dataFile) {
+        if (isLines(dataFile)) return validateLines(schema, dataFile);
+        if (schema.isNative() || mmap) return validateFromStream(schema, dataFile);
+        final var result = new ValidationResult(dataFile);
         try {
+            final long start = System.nanoTime();
             var contents = Files.readString(Path.of(dataFile));
-            return validateString(schemaFile, contents);
+            readNanos = System.nanoTime() - start;
+            return validateString(schema, contents, result);
         }
         catch (final IOException e) {
             return result.add(e.getMessage()).fail();
         }
     }
 
-    private void handle(final ValidationException e) {
-        final String buf = e.getMessage();
-        result.add(buf);
+    /** Let the validator read the file as a stream, memory mapped with mmap=, without creating a String.
+     *  With engine=native, the document is checked while reading it, whatever its size. */
+    private ValidationResult validateFromStream(final CompiledSchema schema, final String dataFile) {
+        final var path = Path.of(dataFile);
+        try (final var in = mmap ? MappedInputStream.open(path) : Files.newInputStream(path)) {
+            return validateStream(schema, in, new ValidationResult(dataFile));
+        }
+        catch (final IOException e) {
+            return new ValidationResult(dataFile).add(e.getMessage()).fail();
+        }
+    }
+
+    ValidationResult validateStream(final CompiledSchema schema, final InputStream in, final ValidationResult result)
+            throws IOException {
+        if (schema.isNative()) {
+            final var errors = new StreamingValidator(schema.rules(), maxLineErrors).validate(in);
+            errors.forEach(result::add);
+            return errors.isEmpty() ? result : result.fail();
+        }
+        try {
+            validator.validate(schema.schema(), in);
+            return result;
+        }
+        catch (final ValidationException e) {
+            return result.add(e.getMessage()).fail();
+        }
     }
-}
 
-class ValidationResult {
-    private boolean ok = true;
-    private final Map<String, List<String>> messages = new LinkedHashMap<>();
-    private final String thisFile;
+    private boolean isLines(final String dataFile) {
+        return ndjson || NDJSON_SUFFIXES.stream().anyMatch(dataFile.toLowerCase()::endsWith);
+    }
 
-    ValidationResult(final String file) { thisFile = file; }
-    ValidationResult fail() { ok = false; return this; }
-    boolean isOk() { return ok; }
+    /** JSON Lines: each line is a separate document, read one at a time to keep memory use flat. */
+    ValidationResult validateLines(final CompiledSchema schema, final String dataFile) {
+        final var result = new ValidationResult(dataFile);
+        try (final var reader = Files.newBufferedReader(Path.of(dataFile))) {
+            int lineNo = 0;
+            int errors = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+                if (line.isBlank()) continue;
+                final var messages = check(schema, line);
+                if (messages.isEmpty()) continue;
+                for (final var msg : messages) result.add("line " + lineNo + ": " + msg).fail();
+                if (++errors >= maxLineErrors) {
+                    result.add("Stopped after " + errors + " failing lines");
+                    break;
+                }
+            }
+            return result;
+        }
+        catch (final IOException e) {
+            return result.add(e.getMessage()).fail();
+        }
+    }
+}
+
+/** failFast/maxErrors: shared by all files of a run, decides when to stop validating. */
+class ErrorBudget {
+    final boolean failFast;
+    final int maxErrors; // 0: no limit
+    private final AtomicInteger errors = new AtomicInteger();
+    private volatile boolean exhausted = false;
 
-    ValidationResult(final String file, final ValidationResult copy) {
-        this(file);
-        if (!copy.ok) ok = false;
-        messages.putAll(copy.messages);
+    ErrorBudget(final Context context) {
+        failFast = context.value(Context.FAIL_FAST).map(Boolean::parseBoolean).orElse(false);
+        maxErrors = context.value(Context.MAX_ERRORS).map(Integer::parseInt).orElse(0);
     }
 
-    ValidationResult add(final String err) {
-        messages.putIfAbsent(thisFile, new LinkedList<>());
-        messages.get(thisFile).add(err);
-        return this;
+    /** Count the messages from a completed file. */
+    ValidationResult record(final ValidationResult result) {
+        if (failFast && !result.isOk()) exhausted = true;
+        if (maxErrors > 0 && errors.addAndGet(result.size()) >= maxErrors) exhausted = true;
+        return result;
     }
 
-    @Override
-    public String toString() {
-        final StringBuilder buf = new StringBuilder();
-        if (isOk()) buf.append("ok\n");
-        messages.keySet().forEach(k -> {
-            buf.append(k).append(":\n");
-            final var strings = messages.get(k);
-            strings.forEach(s -> buf.append("  ").append(s).append('\n'));
-        });
-        return buf.toString();
+    boolean hasRoom() { return !exhausted; }
+
+    String stopReason() {
+        if (failFast) return "Stopped at first failure (" + Context.FAIL_FAST + ")";
+        return "Stopped after " + maxErrors + " messages (" + Context.MAX_ERRORS + ")";
     }
-}
\ No newline at end of file
+}
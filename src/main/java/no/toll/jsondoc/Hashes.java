@@ -0,0 +1,51 @@
+package no.toll.jsondoc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/** Content hashes, used as cache keys. */
+final class Hashes {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private Hashes() {}
+
+    private static MessageDigest digest() {
+        try { return MessageDigest.getInstance("SHA-256"); }
+        catch (final NoSuchAlgorithmException e) { throw new RuntimeException(e); }
+    }
+
+    static String sha256(final String text) {
+        return HexFormat.of().formatHex(digest().digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /** Hash of file contents, read in chunks. */
+    static String sha256(final Path file) throws IOException {
+        final var digest = digest();
+        final var buffer = new byte[BUFFER_SIZE];
+        try (final InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) digest.update(buffer, 0, n);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
+
+//   Copyright 2021-2023, Lars Reed -- lars-at-kalars.net
+//
+//           Licensed under the Apache License, Version 2.0 (the "License");
+//           you may not use this file except in compliance with the License.
+//           You may obtain a copy of the License at
+//
+//           http://www.apache.org/licenses/LICENSE-2.0
+//
+//           Unless required by applicable law or agreed to in writing, software
+//           distributed under the License is distributed on an "AS IS" BASIS,
+//           WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//           See the License for the specific language governing permissions and
+//           limitations under the License.
@@ -0,0 +1,82 @@
+package no.toll.jsondoc;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.Arrays;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/** Expands the files= list: plain names, directories and glob patterns. */
+final class InputFiles {
+    private static final Pattern GLOB_CHARS = Pattern.compile("[*?\\[{]");
+
+    private InputFiles() {}
+
+    /** Lazily expanded, so that validation can start before a directory walk has finished. */
+    static Stream<String> expand(final String files) {
+        return Arrays.stream(files.split(", *"))
+                .filter(f -> !f.isBlank())
+                .flatMap(InputFiles::expandOne);
+    }
+
+    private static Stream<String> expandOne(final String entry) {
+        if (GLOB_CHARS.matcher(entry).find()) return glob(entry);
+        final var path = Path.of(entry);
+        if (Files.isDirectory(path)) return walk(path, Integer.MAX_VALUE).map(Path::toString);
+        return Stream.of(entry);
+    }
+
+    private static Stream<String> glob(final String pattern) {
+        final var matcher = matcher(pattern);
+        final var base = globBase(pattern);
+        final var rest = pattern.substring(base.length());
+        final int depth = rest.contains("**") ? Integer.MAX_VALUE : rest.split("/").length;
+        return walk(Path.of(base), depth)
+                .filter(matcher)
+                .map(Path::toString);
+    }
+
+    /** Does a path found by the walk match the pattern? */
+    static Predicate<Path> matcher(final String pattern) {
+        final var fs = FileSystems.getDefault();
+        final PathMatcher matcher = fs.getPathMatcher("glob:" + pattern);
+        // Let "dir/**/*.json" match files directly within dir as well, and "**/*.json" those in the current directory
+        final PathMatcher direct = fs.getPathMatcher("glob:"
+                + pattern.replace("/**/", "/").replaceFirst("^\\*\\*/", ""));
+        return p -> matcher.matches(p) || direct.matches(p);
+    }
+
+    /** The directory part of the pattern before the first wildcard. */
+    private static String globBase(final String pattern) {
+        final var match = GLOB_CHARS.matcher(pattern);
+        final var prefix = match.find() ? pattern.substring(0, match.start()) : pattern;
+        return prefix.substring(0, prefix.lastIndexOf('/') + 1);
+    }
+
+    private static Stream<Path> walk(final Path dir, final int depth) {
+        if (!Files.isDirectory(dir)) return Stream.empty();
+        try {
+            return Files.walk(dir, depth).filter(Files::isRegularFile);
+        }
+        catch (final IOException e) { throw new UncheckedIOException(e); }
+    }
+}
+
+//   Copyright 2021-2023, Lars Reed -- lars-at-kalars.net
+//
+//           Licensed under the Apache License, Version 2.0 (the "License");
+//           you may not use this file except in compliance with the License.
+//           You may obtain a copy of the License at
+//
+//           http://www.apache.org/licenses/LICENSE-2.0
+//
+//           Unless required by applicable law or agreed to in writing, software
+//           distributed under the License is distributed on an "AS IS" BASIS,
+//           WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//           See the License for the specific language governing permissions and
+//           limitations under the License.
@@ -1,9 +1,18 @@
 package no.toll.jsondoc;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 
 /** The CLI main class. */
@@ -12,6 +21,17 @@ public final class JsonDoc {
     private static Path tmpdir;
     private static final Pattern pattern = Pattern.compile("^([^=]+)=([^=]+)$");
     private static final int EDATA = 65;
+    /** The documentation formats, with the file extension used by ALL. */
+    private static final Map<String, String> EXTENSIONS = Map.of(
+            "HTML", ".html",
+            "WIKI", ".xhtml",
+            "MARKDOWN", ".md",
+            "GRAPH", ".dot",
+            "SCHEMA", ".schema.json",
+            "SAMPLE", ".sample.json");
+    /** Base name of ALL output when reading the schema from stdin. */
+    private static final String STDIN_NAME = "schema";
+    private static final String DEFAULT_FORMATS = "HTML,WIKI,MARKDOWN,GRAPH,SCHEMA,SAMPLE";
 
     static Path tempDir() {
         try {
@@ -39,6 +59,7 @@ public final class JsonDoc {
             if (match.matches() && match.groupCount()==2) context.add(match.group(1), match.group(2));
             else help("Illegible argument " + arg, 1);
         }
+        badNumber(context).ifPresent(message -> help(message, 1));
 
         try {
             tmpdir = Files.createTempDirectory(JsonDoc.TEMP_PFX);
@@ -51,49 +72,170 @@ public final class JsonDoc {
     private static void runWith(final String outType, final String inputfile, final Context context) {
 
         switch (outType.toUpperCase()) {
-            case "HTML" -> {
-                final var root = new JsonDocParser(context).parseFile(inputfile);
-                final var printer = new HtmlPrinter(root, context);
-                System.out.println(printer.create());
+            case "HTML", "WIKI", "MARKDOWN", "GRAPH", "SCHEMA", "SAMPLE" -> {
+                try {
+                    final var root = new JsonDocParser(context).parseFile(inputfile);
+                    final var out = context.value(Context.OUT);
+                    if (out.isPresent()) print(outType, root, context, Path.of(out.get()));
+                    else {
+                        final var writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+                        print(outType, root, context, writer);
+                        writer.write(System.lineSeparator());
+                        writer.flush();
+                    }
+                }
+                catch (final IOException e) { throw new RuntimeException(e); }
             }
-            case "WIKI" -> {
-                final var root = new JsonDocParser(context).parseFile(inputfile);
-                final var printer = new WikiPrinter(root, context);
-                System.out.println(printer.create());
-            }
-            case "MARKDOWN" -> {
-                final var root = new JsonDocParser(context).parseFile(inputfile);
-                final var printer = new MarkdownPrinter(root);
-                System.out.println(printer.create());
-            }
-            case "GRAPH" -> {
-                final var root = new JsonDocParser(context).parseFile(inputfile);
-                final var printer = new GraphPrinter(root);
-                System.out.println(printer.create());
-            }
-            case "SCHEMA" -> {
-                final var root = new JsonDocParser(context).parseFile(inputfile);
-                final var printer = new SchemaPrinter(root);
-                System.out.println(printer.create());
-            }
-            case "SAMPLE" -> {
-                final var root = new JsonDocParser(context).parseFile(inputfile);
-                final var printer = new SamplePrinter(root, context);
-                System.out.println(printer.create());
+            case "ALL", "MULTI" -> {
+                try {
+                    if (context.value(Context.WATCH).map(Boolean::parseBoolean).orElse(false))
+                        new JsonDocWatcher(inputfile, context).watch();
+                    else renderAll(inputfile, context).forEach(System.out::println);
+                }
+                catch (final IOException e) { throw new RuntimeException(e); }
+                catch (final InterruptedException e) { Thread.currentThread().interrupt(); }
             }
             case "VALIDATE" -> {
-                final ValidationResult res = GeneralJSONValidator.validate(inputfile, context);
-                System.out.println(res);
+                context.value(Context.REPORT)
+                        .filter(type -> !ValidationReport.TYPES.contains(type.toLowerCase()))
+                        .ifPresent(type -> help("Unknown " + Context.REPORT + "=" + type, 1));
+                final var report = ValidationReport.of(context, new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+                final ValidationResult res;
+                if (report != null) res = GeneralJSONValidator.validate(inputfile, context, report);
+                else {
+                    res = GeneralJSONValidator.validate(inputfile, context);
+                    System.out.println(res);
+                }
                 if (!res.isOk()) System.exit(EDATA);
             }
             case "GENERATE" -> {
                 final String res = new JsonCodeGen(context, tmpdir).generate(inputfile);
                 System.out.println(res);
             }
+            case "BATCH" -> {
+                try {
+                    final long start = System.nanoTime();
+                    final var results = JsonDocBatch.run(JsonDocBatch.schemas(inputfile), context);
+                    System.out.print(JsonDocBatch.summary(results, System.nanoTime() - start));
+                    if (results.stream().anyMatch(r -> !r.isOk())) System.exit(EDATA);
+                }
+                catch (final IOException e) { throw new RuntimeException(e); }
+            }
+            case "SERVE" -> {
+                try {
+                    final int port = new JsonDocServer(inputfile, context).start();
+                    System.err.println("Listening on http://localhost:" + port + "/");
+                }
+                catch (final IOException e) { throw new RuntimeException(e); }
+            }
             default -> help("Unknown type " + outType, 1);
         }
     }
 
+    /** Parse the schema and create one of the documentation formats. */
+    static String render(final String outType, final String inputfile, final Context context) {
+        return print(outType, new JsonDocParser(context).parseFile(inputfile), context);
+    }
+
+    /** Create one of the documentation formats from a parsed schema. The tree is not changed. */
+    static String print(final String outType, final Node root, final Context context) {
+        return printer(outType, root, context).create();
+    }
+
+    /** As above, written to out as it is created. */
+    static void print(final String outType, final Node root, final Context context, final Appendable out)
+            throws IOException {
+        printer(outType, root, context).print(out);
+    }
+
+    /** As above, written (with a final line separator) to a file, through a FileChannel. */
+    static void print(final String outType, final Node root, final Context context, final Path file)
+            throws IOException {
+        try (final var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                  StandardOpenOption.TRUNCATE_EXISTING);
+             final var out = Channels.newWriter(channel, StandardCharsets.UTF_8)) {
+            print(outType, root, context, out);
+            out.write(System.lineSeparator());
+        }
+    }
+
+    private static Printer printer(final String outType, final Node root, final Context context) {
+        return switch (outType.toUpperCase()) {
+            case "HTML" -> new HtmlPrinter(root, context);
+            case "WIKI" -> new WikiPrinter(root, context);
+            case "MARKDOWN" -> new MarkdownPrinter(root);
+            case "GRAPH" -> new GraphPrinter(root);
+            case "SCHEMA" -> new SchemaPrinter(root);
+            case "SAMPLE" -> new SamplePrinter(root, context);
+            default -> throw new IllegalArgumentException("Unknown type " + outType);
+        };
+    }
+
+    /** The formats named by formats=, checked. */
+    static String[] formats(final Context context) {
+        final var formats = context.value(Context.FORMATS).orElse(DEFAULT_FORMATS).toUpperCase().split(", *");
+        for (final var format : formats)
+            if (!EXTENSIONS.containsKey(format)) throw new IllegalArgumentException("Unknown type " + format);
+        return formats;
+    }
+
+    /** A message if threads= is not a positive number or virtual, maxErrors= not 0 or more,
+     *  or maxLineErrors= not 1 or more. */
+    static Optional<String> badNumber(final Context context) {
+        final var threads = context.value(Context.THREADS);
+        if (threads.isPresent() && !Context.VIRTUAL.equalsIgnoreCase(threads.get()) && !isAtLeast(threads.get(), 1))
+            return Optional.of(Context.THREADS + "= must be a positive number or " + Context.VIRTUAL);
+        if (context.value(Context.MAX_ERRORS).filter(n -> !isAtLeast(n, 0)).isPresent())
+            return Optional.of(Context.MAX_ERRORS + "= must be 0 (no limit) or more");
+        if (context.value(Context.MAX_LINE_ERRORS).filter(n -> !isAtLeast(n, 1)).isPresent())
+            return Optional.of(Context.MAX_LINE_ERRORS + "= must be a positive number");
+        return Optional.empty();
+    }
+
+    private static boolean isAtLeast(final String number, final int min) {
+        try { return Integer.parseInt(number) >= min; }
+        catch (final NumberFormatException e) { return false; }
+    }
+
+    /** Was the file written by ALL, i.e. is its schema (X.json for X.schema.json etc.) next to it? */
+    static boolean isOutput(final String file) {
+        return EXTENSIONS.values().stream()
+                .filter(file::endsWith)
+                .map(ext -> file.substring(0, file.length() - ext.length()) + ".json")
+                .anyMatch(source -> Files.exists(Path.of(source)) || Files.exists(Path.of(source + ".gz")));
+    }
+
+    /** ALL: parse the schema once (twice if SCHEMA is wanted, the clean schema is parsed differently),
+     *  and write each of formats= to its own file in outDir=. Returns the files written. */
+    static List<Path> renderAll(final String inputfile, final Context context) throws IOException {
+        return renderAll(inputfile, context, root -> true);
+    }
+
+    /** As above, but formats are only written if the parsed tree passes the filter (see JsonDocWatcher). */
+    static List<Path> renderAll(final String inputfile, final Context context, final Predicate<Node> render)
+            throws IOException {
+        final var formats = formats(context);
+        final var outDir = Path.of(context.value(Context.OUT_DIR).orElse("."));
+        Files.createDirectories(outDir);
+        final var stdin = JsonDocParser.isStdin(inputfile) ? System.in.readAllBytes() : null; // may be parsed twice
+        final var base = stdin != null ? STDIN_NAME
+                : Path.of(inputfile).getFileName().toString().replaceFirst("\\.json(\\.gz)?$", "");
+        final Map<Boolean, Node> roots = new HashMap<>();
+        final List<Path> written = new ArrayList<>();
+        for (final var format : formats) {
+            final var formatContext = context.clone(format);
+            final var root = roots.computeIfAbsent(formatContext.isSchemaMode(),
+                    schemaMode -> stdin != null
+                            ? new JsonDocParser(formatContext).parse(new ByteArrayInputStream(stdin))
+                            : new JsonDocParser(formatContext).parseFile(inputfile));
+            if (!render.test(root)) continue;
+            final var file = outDir.resolve(base + EXTENSIONS.get(format));
+            print(format, root, formatContext, file);
+            written.add(file);
+        }
+        return written;
+    }
+
     private static void help(final String message, final int err) {
         System.err.println(message);
         System.out.println("""
@@ -109,7 +251,10 @@ public final class JsonDoc {
             SAMPLE:   output sample data -- Note: Experimental!
             VALIDATE: perform validation of datafiles against a schema
             GENERATE: generate data class from schema
-        SCHEMAFILE: name of extended JSON Schema file
+            ALL:      write several of the formats above to files, parsing the schema only once
+            BATCH:    like ALL, for each schema in a directory, or listed in a manifest file, in parallel
+            SERVE:    run an HTTP server on localhost, with the types above as paths (e.g. /html?variant=foo)
+        SCHEMAFILE: name of extended JSON Schema file, "-" for stdin (gzipped input is decompressed)
         DEFINITIONS: follows the pattern name=value, and comes after the inputfile""");
         System.out.println("    " + Context.VARIANT + "=foo could define a context for \""
                 + no.toll.jsondoc.JsonDocNames.XIF_PREFIX + Context.VARIANT + "\": \"foo\"");
@@ -117,12 +262,36 @@ public final class JsonDoc {
         System.out.println("    " + Context.SKIP_TABLES + "=table1,table2,... to exclude tables with given IDs");
         System.out.println("    " + Context.EMBED_ROWS + "=n defines embedding in HTML tables");
         System.out.println("    " + Context.SAMPLE_COLUMNS + "=col1,... defines columns to use for sample output");
-        System.out.println("    " + Context.FILES + "=file1,... required with VALIDATE to name files to validate");
+        System.out.println("    " + Context.OUT + "=file with HTML/WIKI/MARKDOWN/GRAPH/SCHEMA/SAMPLE to write there, not to stdout");
+        System.out.println("    " + Context.FORMATS + "=HTML,MARKDOWN,... with ALL/BATCH to select formats (default " + DEFAULT_FORMATS + ")");
+        System.out.println("    " + Context.OUT_DIR + "=dir with ALL/BATCH to name the output directory"
+                + " (default current directory for ALL, next to each schema for BATCH)");
+        System.out.println("    " + Context.WATCH + "=true with ALL to write the output again each time the schema is saved");
+        System.out.println("    " + Context.FILES + "=file1,dir,glob... required with VALIDATE to name files to validate");
+        System.out.println("    " + Context.CACHE + "=dir with VALIDATE to skip files validated before (unchanged data and schema)"
+                + ", and to reuse parsed schemas");
+        System.out.println("    " + Context.CACHE_MAX_MB + "=n limits the size of the " + Context.CACHE + " directory (default 256)");
+        System.out.println("    " + Context.FAIL_FAST + "=true with VALIDATE to stop at the first failing file");
+        System.out.println("    " + Context.MAX_ERRORS + "=n with VALIDATE to stop after n messages");
+        System.out.println("    " + Context.MMAP + "=true with VALIDATE to read data files through memory mapping");
+        System.out.println("    " + Context.NDJSON + "=true with VALIDATE to read each line as a separate document"
+                + " (default for .jsonl/.ndjson files)");
+        System.out.println("    " + Context.MAX_LINE_ERRORS + "=n with VALIDATE to stop a JSON Lines file after n failing lines"
+                + " (default 100)");
+        System.out.println("    " + Context.REPORT + "=text|json|junit with VALIDATE to write each file's result as soon as it is done");
+        System.out.println("    " + Context.STATS + "=true with VALIDATE to print timing and throughput to stderr");
+        System.out.println("    " + Context.STATS_FILE + "=file with VALIDATE to write the same as JSON");
+        System.out.println("    " + Context.ENGINE + "=" + StreamingValidator.ENGINE
+                + " with VALIDATE to use the built-in validator, checking documents while reading them (subset of keywords)");
         System.out.println("    " + Context.STRICT + "=true with SCHEMA/VALIDATE to have strict schema/validation");
+        System.out.println("    " + Context.THREADS + "=n or " + Context.THREADS + "=" + Context.VIRTUAL
+                + " with VALIDATE/BATCH to validate files or handle schemas in parallel");
         System.out.println("    " + Context.LANG + "=xx sets the HTML5 lang attribute (default " + Context.LANG_EN+ ")");
         System.out.println("    " + Context.CODE + "=Kotlin/Java/Typescript with GENERATE to set generated language (default Java)");
         System.out.println("    " + Context.PACKAGE + "=no.toll.sample to set base package for GENERATE");
         System.out.println("    " + Context.GEN_COMM + "=\"Added comment\" for GENERATE");
+        System.out.println("    " + Context.PORT + "=n sets the port for SERVE (default 8080)");
+        System.out.println("    " + Context.ROOT + "=dir with SERVE lets requests name schema= and files= below dir");
         System.out.println("""
                 Output is written to stdout and should be redirected.""");
         System.exit(err);
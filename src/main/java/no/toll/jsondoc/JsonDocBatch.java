@@ -0,0 +1,132 @@
+package no.toll.jsondoc;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/** BATCH: ALL for many schemas in one JVM, on a pool of threads= (default one per processor).
+ *  The argument is a directory (every .json or .json.gz file below it, except output from ALL next to its schema),
+ *  or a manifest: a text file naming one schema per line, relative to the manifest.
+ *  Output is written next to each schema, or below outDir= in the same relative directory. */
+final class JsonDocBatch {
+    static final int SLOWEST = 10;
+    private static final String COMMENT = "#";
+
+    /** How one schema went: error is null if all formats were written. */
+    record Result(String schema, long nanos, List<Path> written, String error) {
+        boolean isOk() { return error == null; }
+    }
+
+    private JsonDocBatch() {}
+
+    /** The schema files named by a directory or manifest, in a stable order. */
+    static List<String> schemas(final String dirOrManifest) throws IOException {
+        final var path = Path.of(dirOrManifest);
+        if (Files.isDirectory(path)) {
+            try (final var files = Files.walk(path)) {
+                return files.filter(Files::isRegularFile)
+                        .map(Path::toString)
+                        .filter(f -> (f.endsWith(".json") || f.endsWith(".json.gz")) && !JsonDoc.isOutput(f))
+                        .sorted()
+                        .toList();
+            }
+        }
+        return Files.readAllLines(path).stream()
+                .map(String::strip)
+                .filter(line -> !line.isEmpty() && !line.startsWith(COMMENT))
+                .map(line -> path.resolveSibling(line).toString())
+                .toList();
+    }
+
+    /** Handle all schemas; a failing schema does not stop the others. Results are in input order. */
+    static List<Result> run(final List<String> schemas, final Context context) {
+        JsonDoc.formats(context); // fail once, not for every schema
+        final var threads = context.value(Context.THREADS)
+                .orElse(String.valueOf(Runtime.getRuntime().availableProcessors()));
+        final var root = schemas.stream()
+                .map(s -> Path.of(s).toAbsolutePath().normalize().getParent())
+                .reduce(JsonDocBatch::commonParent)
+                .orElse(Path.of(""));
+        try (final var executor = GeneralJSONValidator.executor(threads)) {
+            final List<Future<Result>> futures = new ArrayList<>();
+            for (final var schema : schemas) futures.add(executor.submit(() -> one(schema, root, context)));
+            final List<Result> results = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) results.add(result(futures.get(i), schemas.get(i)));
+            return results;
+        }
+    }
+
+    private static Result one(final String schema, final Path root, final Context context) {
+        final long start = System.nanoTime();
+        try {
+            final var dir = Path.of(schema).toAbsolutePath().normalize().getParent();
+            final var outDir = context.value(Context.OUT_DIR)
+                    .map(out -> Path.of(out).resolve(root.relativize(dir)))
+                    .orElse(dir);
+            final var written = JsonDoc.renderAll(schema, context.clone("ALL").add(Context.OUT_DIR, outDir.toString()));
+            return new Result(schema, System.nanoTime() - start, written, null);
+        }
+        catch (final IOException | RuntimeException e) {
+            return new Result(schema, System.nanoTime() - start, List.of(), e.toString());
+        }
+    }
+
+    private static Result result(final Future<Result> future, final String schema) {
+        try {
+            return future.get();
+        }
+        catch (final ExecutionException e) {
+            return new Result(schema, 0, List.of(), e.getCause().toString());
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Path commonParent(final Path a, final Path b) {
+        var common = a;
+        while (common != null && !b.startsWith(common)) common = common.getParent();
+        return common == null ? a.getRoot() : common;
+    }
+
+    /** One line per schema, in input order, then totals and the slowest schemas. */
+    static String summary(final List<Result> results, final long nanos) {
+        final var buf = new StringBuilder();
+        for (final var result : results) {
+            buf.append(String.format("%8d ms  %s", result.nanos() / 1_000_000, result.schema()));
+            if (!result.isOk()) buf.append("  FAILED: ").append(result.error());
+            buf.append('\n');
+        }
+        final long failed = results.stream().filter(r -> !r.isOk()).count();
+        final int files = results.stream().mapToInt(r -> r.written().size()).sum();
+        buf.append(String.format("%d schemas, %d failed, %d files written in %d ms: %.1f schemas/s%n",
+                results.size(), failed, files, nanos / 1_000_000,
+                nanos == 0 ? 0 : results.size() * 1e9 / nanos));
+        buf.append("slowest:\n");
+        results.stream()
+                .sorted(Comparator.comparingLong(Result::nanos).reversed())
+                .limit(SLOWEST)
+                .forEach(r -> buf.append(String.format("  %8d ms  %s%n", r.nanos() / 1_000_000, r.schema())));
+        return buf.toString();
+    }
+}
+
+//   Copyright 2021-2023, Lars Reed -- lars-at-kalars.net
+//
+//           Licensed under the Apache License, Version 2.0 (the "License");
+//           you may not use this file except in compliance with the License.
+//           You may obtain a copy of the License at
+//
+//           http://www.apache.org/licenses/LICENSE-2.0
+//
+//           Unless required by applicable law or agreed to in writing, software
+//           distributed under the License is distributed on an "AS IS" BASIS,
+//           WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//           See the License for the specific language governing permissions and
+//           limitations under the License.
@@ -0,0 +1,39 @@
+package no.toll.jsondoc;
+
+import net.jimblackler.jsonschemafriend.GenerationException;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+/** Entry point for using the validator as a library, e.g.
+ *  <pre>
+ *  final var schema = JsonDocEngine.compile(Path.of("schema.json"), Map.of("strict", "true"));
+ *  final var result = schema.validate(request.getInputStream());
+ *  </pre>
+ *  The compiled schema is immutable, and can be shared by any number of threads. */
+public final class JsonDocEngine {
+    private JsonDocEngine() {}
+
+    /** Parse the extended schema and compile the clean schema for validation, once.
+     *  The settings are the definitions accepted by VALIDATE on the command line (variant, strict, engine...). */
+    public static CompiledSchema compile(final Path schema, final Map<String, String> settings)
+            throws GenerationException {
+        final var context = new Context("VALIDATE");
+        settings.forEach(context::add);
+        return GeneralJSONValidator.compile(schema.toString(), context);
+    }
+}
+
+//   Copyright 2021-2023, Lars Reed -- lars-at-kalars.net
+//
+//           Licensed under the Apache License, Version 2.0 (the "License");
+//           you may not use this file except in compliance with the License.
+//           You may obtain a copy of the License at
+//
+//           http://www.apache.org/licenses/LICENSE-2.0
+//
+//           Unless required by applicable law or agreed to in writing, software
+//           distributed under the License is distributed on an "AS IS" BASIS,
+//           WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//           See the License for the specific language governing permissions and
+//           limitations under the License.
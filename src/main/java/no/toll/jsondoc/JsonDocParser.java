@@ -4,50 +4,99 @@ import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
 
-import java.io.File;
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.zip.GZIPInputStream;
 
 /** Builds internal data structure from Jackson parser events. */
 class JsonDocParser {
+    /** File name meaning stdin. */
+    static final String STDIN = "-";
+    private static final byte[] GZIP_MAGIC = { 0x1f, (byte) 0x8b };
+    /** String values up to this length are shared, see valueString(). */
+    private static final int SHARED_UP_TO = 32;
 
     private final JsonFactory jFactory = new JsonFactory();
     private final Context context;
     private String nextName;
     private Node topNode;
     private final Deque<Node> parseStack = new LinkedList<>();
+    /** Objects found to be hidden by xif-/xifnot- before they were complete. */
+    private final Set<Node> pruned = Collections.newSetFromMap(new IdentityHashMap<>());
+    /** One copy of each short string value (names are interned by Jackson already). */
+    private final Map<String, String> strings = new HashMap<>();
 
     public JsonDocParser(final Context context) { this.context = context; }
 
     private Node currentNode() {  return (this.parseStack.isEmpty())? null : this.parseStack.peek(); }
 
+    /** The schema file, or stdin for "-". With cache=, a snapshot of the tree from an earlier run is used
+     *  if there is one. */
     Node parseFile(final String fileName) {
-        try (final JsonParser jParser = this.jFactory.createParser(new File(fileName))) {
-            do {
-                final JsonToken token = jParser.nextToken();
-                final var optNode = handleToken(token, jParser);
-                if (optNode.isPresent()) return optNode.get();
-            } while (true);
+        final var snapshots = TreeSnapshot.of(context);
+        if (snapshots.isPresent() && !isStdin(fileName))
+            return snapshots.get().load(fileName, () -> parseFileUncached(fileName));
+        return parseFileUncached(fileName);
+    }
+
+    static boolean isStdin(final String fileName) { return STDIN.equals(fileName); }
+
+    private Node parseFileUncached(final String fileName) {
+        if (isStdin(fileName)) return parse(System.in);
+        try {
+            return parse(Files.newInputStream(Path.of(fileName)));
         }
         catch (final IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /** Parse from a stream, which is closed afterwards. Gzipped input (like .gz files) is decompressed
+     *  while reading. */
+    Node parse(final InputStream input) {
+        try (final JsonParser jParser = this.jFactory.createParser(decompressed(input))) {
+            return parse(jParser);
+        }
+        catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Recognizes gzip by its header, not by the file name -- so that piped input works too. */
+    static InputStream decompressed(final InputStream input) throws IOException {
+        final var in = input.markSupported() ? input : new BufferedInputStream(input);
+        in.mark(GZIP_MAGIC.length);
+        final var head = in.readNBytes(GZIP_MAGIC.length);
+        in.reset();
+        return Arrays.equals(head, GZIP_MAGIC) ? new GZIPInputStream(in) : in;
+    }
+
     Node parseString(final String data) {
         try (final JsonParser jParser = this.jFactory.createParser(data)) {
-            do {
-                final JsonToken token = jParser.nextToken();
-                final var optNode = handleToken(token, jParser);
-                if (optNode.isPresent()) return optNode.get();
-            } while (true);
+            return parse(jParser);
         }
         catch (final IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    private Node parse(final JsonParser jParser) throws IOException {
+        do {
+            final JsonToken token = jParser.nextToken();
+            final var optNode = handleToken(token, jParser);
+            if (optNode.isPresent()) return optNode.get();
+        } while (true);
+    }
+
     private Optional<Node> handleToken(final JsonToken token, final JsonParser jParser) throws IOException {
+        if (token != null && (token.isScalarValue() || token.isStructStart()) && skip(token, jParser)) {
+            jParser.skipChildren(); // no-op for scalars
+            return Optional.empty();
+        }
         switch (token) {
             case FIELD_NAME -> fieldName(jParser);
             case START_OBJECT -> startObject();
@@ -68,6 +117,46 @@ class JsonDocParser {
         return Optional.empty();
     }
 
+    /** Decide, as each field arrives, whether it is needed -- if not, no nodes are built for it:
+     *  ignore-*, excluded x-* columns, tables named by skipTables= (not in schema mode), and the rest of
+     *  an object once an xif-/xifnot- field has hidden it. Other nodes are hidden later, by Node.finalized(). */
+    private boolean skip(final JsonToken token, final JsonParser jParser) throws IOException {
+        final var current = currentNode();
+        if (current == null || !NodeType.Object.equals(current.nodeType)) return false; // not a field
+        if (pruned.contains(current)) return true;
+        if (nextName.startsWith(JsonDocNames.IGNORE_PREFIX)) return true;
+        if (nextName.startsWith(JsonDocNames.XDOC_PREFIX) && context.isExcluded(nextName)) return true;
+        if (token == JsonToken.START_OBJECT && !context.isSchemaMode() && context.contains(Context.SKIP_TABLES)
+                && context.anyMatch(Context.SKIP_TABLES, extId(nextName)).orElse(false)) return true;
+        if (token.isScalarValue() && Node.isXif(nextName) && current.parent() != null && !isPropertiesNode(current)) {
+            final var value = jParser.getValueAsString(); // as Node.toString() would show it, except for numbers
+            final var vals = token.isNumeric() ? scalar(token, jParser).toString() : value == null ? "" : value;
+            if (Node.hiddenByXif(nextName, vals, context)) pruned.add(current);
+            return true;
+        }
+        return false;
+    }
+
+    /** A "properties" object is dissolved into its parent when finalized (but not in schema mode). */
+    private boolean isPropertiesNode(final Node node) {
+        return !context.isSchemaMode() && JsonDocNames.PROPERTIES.equals(node.name);
+    }
+
+    private static Object scalar(final JsonToken token, final JsonParser jParser) throws IOException {
+        return token == JsonToken.VALUE_NUMBER_INT ? (Object) jParser.getLongValue() : jParser.getDoubleValue();
+    }
+
+    /** The id (Node.extId()) that a table with this name would get. */
+    private String extId(final String name) {
+        final List<String> names = new ArrayList<>();
+        for (final var it = parseStack.descendingIterator(); it.hasNext(); ) {
+            final var node = it.next();
+            if (!isPropertiesNode(node)) names.add(node.name);
+        }
+        names.add(name);
+        return Node.extId(names);
+    }
+
     private void fieldName(final JsonParser jParser) throws IOException { this.nextName = jParser.getCurrentName(); }
 
     private void startObject() {
@@ -77,8 +166,13 @@ class JsonDocParser {
     }
 
     private Optional<Node> endObject() {
-        final var res = this.parseStack.pop().finalized();
-        if (this.parseStack.isEmpty()) return Optional.of(res);
+        final var node = this.parseStack.pop();
+        if (pruned.remove(node)) {
+            node.detach();
+            return Optional.empty();
+        }
+        final var res = node.finalized();
+        if (this.parseStack.isEmpty()) return Optional.of(res.freeze());
         return Optional.empty();
     }
 
@@ -106,7 +200,9 @@ class JsonDocParser {
     }
 
     protected void valueString(final JsonParser jParser) throws IOException {
-        addKeyVal(jParser.getValueAsString(), DataType.StringType);
+        // Types, formats, enum values etc repeat a lot
+        final var value = jParser.getValueAsString();
+        addKeyVal(value.length() > SHARED_UP_TO ? value : strings.computeIfAbsent(value, v -> v), DataType.StringType);
     }
 }
 
@@ -0,0 +1,218 @@
+package no.toll.jsondoc;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import net.jimblackler.jsonschemafriend.GenerationException;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/** SERVE: keeps the JVM (and parsed and compiled schemas) warm, and runs the other actions over HTTP.
+ *  The path names the action, query parameters are definitions as on the command line, e.g.
+ *  GET /html?variant=foo or POST /validate with the data document as body.
+ *  Only the definitions in REQUEST_PARAMS are taken from a request, the rest are set at startup.
+ *  The parameters schema= and files= name files below root= (given at startup), if any. */
+class JsonDocServer {
+    static final String SCHEMA_PARAM = "schema";
+    private static final int DEFAULT_PORT = 8080;
+    /** How many parsed trees (and compiled schemas) to keep; the least recently used goes first. */
+    private static final int CACHED = 16;
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_BAD_REQUEST = 400;
+    private static final int HTTP_NOT_FOUND = 404;
+    private static final int HTTP_UNPROCESSABLE = 422;
+    private static final int HTTP_ERROR = 500;
+    private static final Map<String, String> CONTENT_TYPES = Map.of(
+            "HTML", "text/html",
+            "WIKI", "application/xhtml+xml",
+            "MARKDOWN", "text/markdown",
+            "GRAPH", "text/vnd.graphviz",
+            "SCHEMA", "application/schema+json",
+            "SAMPLE", "application/json",
+            "VALIDATE", "text/plain");
+    /** What a request may define: presentation, validation, and files below root=. */
+    private static final Set<String> REQUEST_PARAMS = Set.of(SCHEMA_PARAM, Context.FILES, Context.VARIANT,
+            Context.EXCLUDE_COLUMNS, Context.SKIP_TABLES, Context.EMBED_ROWS, Context.SAMPLE_COLUMNS, Context.LANG,
+            Context.STRICT, Context.ENGINE, Context.NDJSON, Context.FAIL_FAST, Context.MAX_ERRORS,
+            Context.MAX_LINE_ERRORS);
+
+    private record Compiled(FileTime modified, CompiledSchema schema) {}
+    private record Parsed(FileTime modified, Node root) {}
+
+    private final String defaultSchema;
+    private final Context defaults;
+    private final Path root; // null: no other files than the startup schema
+    private final Map<String, Compiled> compiled = lru();
+    private final Map<String, Parsed> parsed = lru();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    JsonDocServer(final String defaultSchema, final Context defaults) {
+        this.defaultSchema = defaultSchema;
+        this.defaults = defaults;
+        this.root = defaults.value(Context.ROOT).map(r -> Path.of(r).toAbsolutePath().normalize()).orElse(null);
+    }
+
+    /** Start listening on localhost, returns the actual port. */
+    int start() throws IOException {
+        final int port = defaults.value(Context.PORT).map(Integer::parseInt).orElse(DEFAULT_PORT);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.close();
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try (exchange) {
+            final var action = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").toUpperCase();
+            if (!CONTENT_TYPES.containsKey(action)) {
+                respond(exchange, HTTP_NOT_FOUND, "Unknown type " + action + "\n");
+                return;
+            }
+            try {
+                final var context = requestContext(action, exchange.getRequestURI().getRawQuery());
+                final var schema = context.value(SCHEMA_PARAM).orElse(defaultSchema);
+                if ("VALIDATE".equals(action)) validate(exchange, schema, context);
+                else respond(exchange, HTTP_OK, JsonDoc.print(action, parsed(schema, context), context),
+                             CONTENT_TYPES.get(action));
+            }
+            catch (final IllegalArgumentException e) {
+                respond(exchange, HTTP_BAD_REQUEST, e.getMessage() + "\n");
+            }
+            catch (final NoSuchFileException e) {
+                respond(exchange, HTTP_NOT_FOUND, "Not found: " + e.getMessage() + "\n");
+            }
+            catch (final IOException e) {
+                respond(exchange, HTTP_BAD_REQUEST, e + "\n");
+            }
+            catch (final RuntimeException | GenerationException e) {
+                respond(exchange, HTTP_ERROR, e + "\n");
+            }
+        }
+    }
+
+    private Context requestContext(final String action, final String query) {
+        final var context = defaults.clone(action);
+        if (query == null || query.isEmpty()) return context;
+        for (final var param : query.split("&")) {
+            final int eq = param.indexOf('=');
+            if (eq <= 0) continue;
+            final var key = URLDecoder.decode(param.substring(0, eq), StandardCharsets.UTF_8);
+            final var value = URLDecoder.decode(param.substring(eq + 1), StandardCharsets.UTF_8);
+            if (!REQUEST_PARAMS.contains(key)) throw new IllegalArgumentException("Not allowed in a request: " + key);
+            context.add(key, switch (key) {
+                case SCHEMA_PARAM -> value.equals(defaultSchema) ? value : below(value);
+                case Context.FILES -> Arrays.stream(value.split(", *"))
+                        .filter(f -> !f.isBlank())
+                        .map(this::below)
+                        .collect(Collectors.joining(","));
+                default -> value;
+            });
+        }
+        return context;
+    }
+
+    /** A file name (or glob pattern) resolved against root=, which it may not leave. */
+    private String below(final String name) {
+        if (root == null) throw new IllegalArgumentException("Start with " + Context.ROOT + "=dir to name files: " + name);
+        final var path = root.resolve(name).normalize();
+        if (!path.startsWith(root)) throw new IllegalArgumentException("Not below " + Context.ROOT + "=: " + name);
+        return path.toString();
+    }
+
+    /** With a request body, validate that; otherwise validate files= as on the command line. */
+    private void validate(final HttpExchange exchange, final String schemaFile, final Context context)
+            throws IOException, GenerationException {
+        final var schema = compiled(schemaFile, context);
+        final var body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        final ValidationResult res;
+        if (!body.isBlank()) res = new GeneralJSONValidator(context).validateString(schema, body);
+        else if (context.contains(Context.FILES)) res = GeneralJSONValidator.validate(schema, schemaFile, context);
+        else {
+            respond(exchange, HTTP_BAD_REQUEST, "Request body or " + Context.FILES + "= required\n");
+            return;
+        }
+        respond(exchange, res.isOk() ? HTTP_OK : HTTP_UNPROCESSABLE, res.toString());
+    }
+
+    /** Compiled schemas are reused until the schema file changes. */
+    private CompiledSchema compiled(final String schemaFile, final Context context)
+            throws IOException, GenerationException {
+        final var key = schemaFile + '\n' + StreamingValidator.isSelected(context) + '\n'
+                + TreeSnapshot.signature(context.clone(Context.SCHEMA_MODE));
+        final var modified = Files.getLastModifiedTime(Path.of(schemaFile));
+        final var hit = compiled.get(key);
+        if (hit != null && hit.modified().equals(modified)) return hit.schema();
+        final var schema = GeneralJSONValidator.compile(schemaFile, context);
+        compiled.put(key, new Compiled(modified, schema));
+        return schema;
+    }
+
+    /** Parsed trees are read only, so one is shared by all requests with the same definitions
+     *  (of those that may change the tree) until the schema file changes. */
+    private Node parsed(final String schemaFile, final Context context) throws IOException {
+        final var key = schemaFile + '\n' + TreeSnapshot.signature(context);
+        final var modified = Files.getLastModifiedTime(Path.of(schemaFile));
+        final var hit = parsed.get(key);
+        if (hit != null && hit.modified().equals(modified)) return hit.root();
+        final var root = new JsonDocParser(context).parseFile(schemaFile);
+        parsed.put(key, new Parsed(modified, root));
+        return root;
+    }
+
+    private static <V> Map<String, V> lru() {
+        return Collections.synchronizedMap(new LinkedHashMap<>(CACHED, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(final Map.Entry<String, V> eldest) {
+                return size() > CACHED;
+            }
+        });
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final String text) throws IOException {
+        respond(exchange, status, text, CONTENT_TYPES.get("VALIDATE"));
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final String text,
+                                final String contentType) throws IOException {
+        final var bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) exchange.getResponseBody().write(bytes);
+    }
+}
+
+//   Copyright 2021-2023, Lars Reed -- lars-at-kalars.net
+//
+//           Licensed under the Apache License, Version 2.0 (the "License");
+//           you may not use this file except in compliance with the License.
+//           You may obtain a copy of the License at
+//
+//           http://www.apache.org/licenses/LICENSE-2.0
+//
+//           Unless required by applicable law or agreed to in writing, software
+//           distributed under the License is distributed on an "AS IS" BASIS,
+//           WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//           See the License for the specific language governing permissions and
+//           limitations under the License.
@@ -0,0 +1,128 @@
+package no.toll.jsondoc;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/** watch=true with ALL: writes the output again each time the schema is saved.
+ *  (Files named by a non-local $ref are not read when parsing, so they are not watched either.)
+ *  A format is only rendered again if its parsed tree has changed, compared by Node fingerprints;
+ *  the tables that changed are found by comparing subtrees, skipping those with the same fingerprint.
+ *  (Unchanged tables are still printed: the output links across the whole tree.) */
+final class JsonDocWatcher {
+    /** Editors often save in more than one step -- wait this long for the rest. */
+    private static final long SETTLE_MILLIS = 25;
+
+    private final String inputfile;
+    private final Context context;
+    private final Set<String> rendered = new HashSet<>();
+    private final Map<String, String> tables = new HashMap<>();
+    private final Path schema;
+    private final List<String> changed = new ArrayList<>();
+    private final CountDownLatch watching = new CountDownLatch(1);
+
+    JsonDocWatcher(final String inputfile, final Context context) {
+        this.inputfile = inputfile;
+        this.context = context;
+        schema = Path.of(inputfile).toAbsolutePath().normalize();
+    }
+
+    /** Write the formats whose tree changed since the last call (all of them the first time). */
+    List<Path> update() throws IOException {
+        final List<Node> roots = new ArrayList<>();
+        final var written = JsonDoc.renderAll(inputfile, context, root -> {
+            if (!roots.contains(root)) roots.add(root);
+            return !rendered.contains(root.fingerprint());
+        });
+        final var first = tables.isEmpty();
+        rendered.clear();
+        changed.clear();
+        for (int i = 0; i < roots.size(); i++) {
+            rendered.add(roots.get(i).fingerprint());
+            compare(i + ":", roots.get(i), first || i > 0); // the schema mode tree would list the same changes
+        }
+        return written;
+    }
+
+    /** Tables (qualified names) found changed by the last update, innermost only. */
+    List<String> changed() { return changed; }
+
+    /** Wait until watch() has rendered once and registered the directory; false on timeout. */
+    boolean awaitWatching(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return watching.await(timeout, unit);
+    }
+
+    /** Render, then render again on each change, until interrupted. */
+    void watch() throws IOException, InterruptedException {
+        final long first = System.nanoTime();
+        log(update(), System.nanoTime() - first);
+        try (final WatchService service = FileSystems.getDefault().newWatchService()) {
+            schema.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            watching.countDown();
+            while (true) {
+                final var key = service.take();
+                final long start = System.nanoTime();
+                var hit = events(key);
+                Thread.sleep(SETTLE_MILLIS);
+                for (var more = service.poll(); more != null; more = service.poll()) hit |= events(more);
+                if (!hit) continue;
+                try { log(update(), System.nanoTime() - start); }
+                catch (final RuntimeException e) { System.err.println(inputfile + ": " + e); } // e.g. saved halfway
+            }
+        }
+    }
+
+    /** Did the events concern the schema? */
+    private boolean events(final WatchKey key) {
+        var hit = false;
+        for (final var event : key.pollEvents())
+            if (event.context() instanceof final Path name && schema.getFileName().equals(name)) hit = true;
+        key.reset();
+        return hit;
+    }
+
+    private void log(final List<Path> written, final long nanos) {
+        written.forEach(System.out::println);
+        if (written.isEmpty()) System.err.println("No changes");
+        else System.err.println("Written in " + nanos / 1_000_000 + " ms"
+                + (changed.isEmpty() ? "" : ", changed: " + String.join(", ", changed)));
+    }
+
+    /** Compare the tables with the fingerprints from the last update, and keep the new ones.
+     *  Returns whether the subtree changed; only the innermost changed tables are listed. */
+    private boolean compare(final String prefix, final Node node, final boolean quiet) {
+        final var key = prefix + node.qName();
+        final var old = tables.put(key, node.fingerprint());
+        if (node.fingerprint().equals(old)) return false; // unchanged, no need to look further down
+        var below = false;
+        for (final var child : node.children) if (child.isTable()) below |= compare(prefix, child, quiet);
+        if (!below && !quiet) changed.add(node.qName());
+        return true;
+    }
+}
+
+//   Copyright 2021-2023, Lars Reed -- lars-at-kalars.net
+//
+//           Licensed under the Apache License, Version 2.0 (the "License");
+//           you may not use this file except in compliance with the License.
+//           You may obtain a copy of the License at
+//
+//           http://www.apache.org/licenses/LICENSE-2.0
+//
+//           Unless required by applicable law or agreed to in writing, software
+//           distributed under the License is distributed on an "AS IS" BASIS,
+//           WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//           See the License for the specific language governing permissions and
+//           limitations under the License.
@@ -0,0 +1,82 @@
+package no.toll.jsondoc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/** Reads a file through memory mapped windows, so the contents are never copied onto the heap as a whole.
+ *  Files larger than one window (and than the 2GB limit of a single mapping) are mapped piece by piece. */
+final class MappedInputStream extends InputStream {
+    private static final long WINDOW = 64L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long window;
+    private final long size;
+    private long position = 0;
+    private MappedByteBuffer buffer;
+
+    private MappedInputStream(final FileChannel channel, final long window) throws IOException {
+        this.channel = channel;
+        this.window = window;
+        this.size = channel.size();
+    }
+
+    static MappedInputStream open(final Path file) throws IOException { return open(file, WINDOW); }
+
+    static MappedInputStream open(final Path file, final long window) throws IOException {
+        return new MappedInputStream(FileChannel.open(file, StandardOpenOption.READ), window);
+    }
+
+    /** Make sure there is something left in the current window, returns false at end of file. */
+    private boolean fill() throws IOException {
+        if (buffer != null && buffer.hasRemaining()) return true;
+        if (position >= size) return false;
+        final long length = Math.min(window, size - position);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        position += length;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) return -1;
+        return buffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) return 0;
+        if (!fill()) return -1;
+        final int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, (buffer == null ? 0 : buffer.remaining()) + size - position);
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer = null;
+        channel.close();
+    }
+}
+
+//   Copyright 2021-2023, Lars Reed -- lars-at-kalars.net
+//
+//           Licensed under the Apache License, Version 2.0 (the "License");
+//           you may not use this file except in compliance with the License.
+//           You may obtain a copy of the License at
+//
+//           http://www.apache.org/licenses/LICENSE-2.0
+//
+//           Unless required by applicable law or agreed to in writing, software
+//           distributed under the License is distributed on an "AS IS" BASIS,
+//           WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//           See the License for the specific language governing permissions and
+//           limitations under the License.
@@ -1,26 +1,59 @@
 package no.toll.jsondoc;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 class Node {
+    private static final Pattern UNSAFE_ID = Pattern.compile("[^_$a-zA-Z0-9-]");
+    private static final Pattern LEADING_UNDERSCORES = Pattern.compile("^_+");
+    /** Below this many children, getChild() just looks through them. */
+    private static final int INDEXED_FROM = 16;
     final String name;
     private boolean visible = true;
     final NodeType nodeType;
     final DataType dataType;
-    final List<Node> children = new LinkedList<>();
+    List<Node> children = new ArrayList<>();
     private Node parent;
     final NodeValues values = new NodeValues();
     private final Context context;
     private boolean required = false;
     NodeRepresentation representation;
-    private final Node topRow;
+    private Node topRow;
+    private boolean frozen = false;
+    /** What is kept of fingerprint(), paths and views, see Derived. */
+    private Derived derived = null;
+
+    /** Computed on first use, kept once frozen -- before that, parsing may still move nodes (see removeThisNode()
+     *  and finalizeTable()), or change their representation. Only the child index is kept during parsing,
+     *  and dropped on add()/remove(). Allocated when needed, as most nodes never use it. */
+    private static final class Derived {
+        String fingerprint;
+        String qName;
+        String idPath;
+        String displayName;
+        int level;
+        /** Children by name, for nodes with many children. */
+        Map<String, Node> index;
+        List<Node> rows;
+        List<Node> subTables;
+        List<String> columns;
+    }
+
+    private Derived derived() {
+        var d = derived;
+        if (d == null) derived = d = new Derived();
+        return d;
+    }
 
     Node(final String name, final NodeType nodeType, final DataType dataType, final Object value, final Node parent,
          final Context context) {
@@ -45,8 +78,19 @@ class Node {
         this(name, nodeType, DataType.NA, null, parent, context);
     }
 
-    /** Node not hidden or processed? */ boolean isVisible() { return this.visible; }
-    /** Mark as processed. */ void done() { this.visible = false; }
+    /** Restored from a snapshot, see read(). */
+    private Node(final String name, final NodeType nodeType, final DataType dataType, final Node parent,
+                 final Context context) {
+        this.name = name;
+        this.nodeType = nodeType;
+        this.dataType = dataType;
+        this.parent = parent;
+        this.context = context;
+        if (parent!=null) parent.add(this);
+    }
+
+    /** Node not hidden? (Which nodes a printer has processed is kept by the printer.) */
+    boolean isVisible() { return this.visible; }
     boolean isTable() { return NodeRepresentation.Table.equals(this.representation)
             || NodeRepresentation.EmbeddedTable.equals(this.representation); }
     boolean isColumn() { return NodeRepresentation.Column.equals(this.representation); }
@@ -75,28 +119,29 @@ class Node {
         }
     }
 
-    /** Track parent chain. */
-    private List<Node> heritage() {
-        final List<Node> list = new LinkedList<>();
-        if (this.parent!=null) list.addAll(this.parent.heritage());
-        list.add(this);
-        return list;
-    }
-
     /** Unique name -- qualified by ancestor names. */
     String qName() {
-        if (parent==null) return displayName();
-        final var list = heritage().stream()
-                .skip(1)
-                .map(Node::displayName)
-                .toList();
-        return NodeValues.listToString(list,
-                "", " > ", "");
+        final var kept = derived;
+        if (kept != null && kept.qName != null) return kept.qName;
+        final var res = parent == null ? displayName() : ancestry().trim();
+        if (frozen) derived().qName = res;
+        return res;
+    }
+
+    /** Display names from below the root to this, before trimming (as the whole name is trimmed, not each part). */
+    private String ancestry() {
+        return parent == null || parent.parent == null
+                ? displayName()
+                : parent.ancestry() + " > " + displayName();
     }
 
     /** Title for tables etc. Quotes are removed due to usage in HTML, graphs etc. */
     String displayName() {
-        return displayNameRaw().replaceAll("'", "").replaceAll("\"", "");
+        final var kept = derived;
+        if (kept != null && kept.displayName != null) return kept.displayName;
+        final var res = displayNameRaw().replace("'", "").replace("\"", "");
+        if (frozen) derived().displayName = res;
+        return res;
     }
 
     private String displayNameRaw() {
@@ -113,60 +158,197 @@ class Node {
     }
 
     /** Depth in tree. */
-    int level() { return heritage().size(); }
+    int level() {
+        final var kept = derived;
+        if (kept != null && kept.level > 0) return kept.level;
+        final var res = parent == null ? 1 : parent.level() + 1;
+        if (frozen) derived().level = res;
+        return res;
+    }
 
     /** Unique id for use as anchor etc (not for display). */
     String extId() {
-        final var names = heritage().stream()
-                .map(n -> n.name.replaceAll("[^_$a-zA-Z0-9-]", "_"))
+        final var path = idPath();
+        return path.isEmpty() ? "_" : path;
+    }
+
+    /** extId() before an empty id is replaced. */
+    private String idPath() {
+        final var kept = derived;
+        if (kept != null && kept.idPath != null) return kept.idPath;
+        final var own = UNSAFE_ID.matcher(name).replaceAll("_");
+        final var res = LEADING_UNDERSCORES.matcher(parent == null ? own : parent.idPath() + "__" + own)
+                .replaceFirst("");
+        if (frozen) derived().idPath = res;
+        return res;
+    }
+
+    /** The id of a node with these names from the root down. */
+    static String extId(final List<String> heritage) {
+        final var names = heritage.stream()
+                .map(n -> UNSAFE_ID.matcher(n).replaceAll("_"))
                 .toList();
-        return NodeValues.listToString(names, "", "__", "")
-                .replaceAll("^_+", "")
+        return LEADING_UNDERSCORES.matcher(NodeValues.listToString(names, "", "__", ""))
+                .replaceFirst("")
                 .replaceAll("^$", "_");
     }
 
-    /** Column names for this node (should be of type object). */
+    /** Column names for this node (should be of type object). Kept once frozen. */
     List<String> columns() {
-        final Set<String> list = new LinkedHashSet<>();
-        list.addAll(JsonDocNames.ALWAYS_COLUMNS);
-        list.addAll(this.children.stream()
-                .filter(Node::isColumn)
-                .map(n -> n.name)
-                .filter(n -> ! list.contains(n))
-                .toList());
-        list.addAll(this.children.stream()
-                .filter(Node::isRow)
-                .flatMap(n -> n.children.stream())
-                .filter(Node::isColumn)
-                .map(n -> n.name)
-                .filter(n -> ! list.contains(n))
-                .toList());
-        return list.stream().toList();
-    }
-
-    /** Rows in this node (should be of type object). */
+        final var kept = derived;
+        if (kept != null && kept.columns != null) return kept.columns;
+        final var res = columnsAmong(this.children);
+        if (frozen) derived().columns = res;
+        return res;
+    }
+
+    /** Column names given these children -- this node's own, or as seen by a printer. */
+    List<String> columns(final List<Node> children) {
+        return children == this.children ? columns() : columnsAmong(children);
+    }
+
+    private static List<String> columnsAmong(final List<Node> children) {
+        final Set<String> list = new LinkedHashSet<>(JsonDocNames.ALWAYS_COLUMNS);
+        for (final var n : children) if (n.isColumn()) list.add(n.name);
+        for (final var n : children)
+            if (n.isRow()) for (final var c : n.children) if (c.isColumn()) list.add(c.name);
+        return List.copyOf(list);
+    }
+
+    /** Rows in this node (should be of type object). Kept once frozen. */
     List<Node> rows() {
+        final var kept = derived;
+        if (kept != null && kept.rows != null) return kept.rows;
+        final var res = rowsAmong(this.children);
+        if (frozen) derived().rows = res;
+        return res;
+    }
+
+    /** Rows among these children. */
+    List<Node> rows(final List<Node> children) { return children == this.children ? rows() : rowsAmong(children); }
+
+    private List<Node> rowsAmong(final List<Node> children) {
         if (!NodeType.Object.equals(this.nodeType)) Logger.warn(qName(), "is not an object");
-        return this.children.stream()
+        return children.stream()
                 .filter(n -> n.visible && (n.isRow() || n.isTable()))
                 .toList();
     }
 
-    /** Subtables in this node (should be of type object). */
+    /** Subtables in this node (should be of type object). Kept once frozen. */
     List<Node> subTables() {
+        final var kept = derived;
+        if (kept != null && kept.subTables != null) return kept.subTables;
+        final var res = subTablesAmong(this.children);
+        if (frozen) derived().subTables = res;
+        return res;
+    }
+
+    /** Subtables among these children. */
+    List<Node> subTables(final List<Node> children) {
+        return children == this.children ? subTables() : subTablesAmong(children);
+    }
+
+    private List<Node> subTablesAmong(final List<Node> children) {
         if (!NodeType.Object.equals(this.nodeType)) Logger.warn(qName(), "is not an object");
-        return this.children.stream()
+        return children.stream()
                 .filter(n -> n.isVisible() && n.isTable())
                 .toList();
     }
 
-    /** Add a child node. */ void add(final Node node) { this.children.add(node); }
-    /** Remove a child node. */ private void remove(final Node node) { this.children.remove(node); }
+    /** Add a child node. */
+    void add(final Node node) {
+        checkNotFrozen();
+        this.children.add(node);
+        if (derived != null) derived.index = null;
+    }
+
+    /** Remove a child node. */
+    private void remove(final Node node) {
+        checkNotFrozen();
+        this.children.remove(node);
+        if (derived != null) derived.index = null;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) throw new IllegalStateException(qName() + " is read only after parsing");
+    }
+
+    /** Hash of the content of this subtree (not of where it is in the tree). Kept once the tree is frozen. */
+    String fingerprint() {
+        final var kept = derived;
+        if (kept != null && kept.fingerprint != null) return kept.fingerprint;
+        final var sb = new StringBuilder()
+                .append(name).append('\0')
+                .append(nodeType).append(' ').append(dataType).append(' ').append(representation).append(' ')
+                .append(visible).append(' ').append(required).append('\0')
+                .append(values.all()).append('\0');
+        if (topRow != null) sb.append(topRow.fingerprint());
+        for (final var child : children) sb.append('\0').append(child.fingerprint());
+        final var hash = Hashes.sha256(sb.toString());
+        if (frozen) derived().fingerprint = hash;
+        return hash;
+    }
+
+    /** Write this (finalized) subtree to a TreeSnapshot. */
+    void write(final TreeSnapshot.Out out) throws IOException {
+        out.string(name);
+        out.data.writeByte(nodeType.ordinal());
+        out.data.writeByte(dataType.ordinal());
+        out.data.writeByte(representation == null ? -1 : representation.ordinal());
+        out.data.writeBoolean(visible);
+        out.data.writeBoolean(required);
+        out.number(values.all().size());
+        for (final var value : values.all()) out.value(value);
+        out.number(children.size());
+        out.number(topRow == null ? 0 : children.indexOf(topRow) + 1);
+        for (final var child : children) child.write(out);
+    }
+
+    /** A subtree as written by write(). */
+    static Node read(final TreeSnapshot.In in, final Node parent, final Context context) throws IOException {
+        final var node = new Node(in.string(), NodeType.values()[in.data.readByte()],
+                DataType.values()[in.data.readByte()], parent, context);
+        final int representation = in.data.readByte();
+        node.representation = representation < 0 ? null : NodeRepresentation.values()[representation];
+        node.visible = in.data.readBoolean();
+        node.required = in.data.readBoolean();
+        final int valueCount = in.number();
+        for (int i = 0; i < valueCount; i++) node.values.add(in.value());
+        final int childCount = in.number();
+        final int topRow = in.number();
+        for (int i = 0; i < childCount; i++) read(in, node, context);
+        if (topRow > 0) node.topRow = node.children.get(topRow - 1);
+        return node;
+    }
+
+    /** Make this (finalized) tree read only, so that it can be printed any number of times,
+     *  also by several threads at once. */
+    Node freeze() {
+        if (frozen) return this;
+        frozen = true;
+        children = List.copyOf(children);
+        values.freeze();
+        if (topRow != null) topRow.freeze();
+        children.forEach(Node::freeze);
+        return this;
+    }
+
+    /** Leave the tree (during parsing). */ void detach() { parent.remove(this); }
 
-    /** Find a named child under this node. */
+    /** Find a named child under this node (the first, if the name is repeated). */
     Optional<Node> getChild(final String name) {
-        for (final var node : this.children) if (name.equals(node.name)) return Optional.of(node);
-        return Optional.empty();
+        if (children.size() < INDEXED_FROM) {
+            for (final var node : this.children) if (name.equals(node.name)) return Optional.of(node);
+            return Optional.empty();
+        }
+        var map = derived == null ? null : derived.index;
+        if (map == null) {
+            final Map<String, Node> first = new HashMap<>();
+            for (final var node : this.children) first.putIfAbsent(node.name, node);
+            map = Map.copyOf(first);
+            derived().index = map;
+        }
+        return Optional.ofNullable(map.get(name));
     }
 
     /** Called when this instance is complete from the parser. */
@@ -246,24 +428,27 @@ class Node {
 
     private void handleXif() {
         // Handle variants
-        if (name.startsWith(JsonDocNames.XIFNOT_PREFIX)) {
-            final var key = removePrefix(name, JsonDocNames.XIFNOT_PREFIX);
+        if (isXif(name)) {
             final var vals = values.stream()
                     .map(Object::toString)
                     .collect(Collectors.joining(","));
-            final var matches = context.anyMatch(key, vals);
-            if (matches.isPresent() && matches.get()) parent.visible = false;
+            if (hiddenByXif(name, vals, context)) parent.visible = false;
             visible = false;
         }
-        else if (name.startsWith(JsonDocNames.XIF_PREFIX)) {
-            final var key = removePrefix(name, JsonDocNames.XIF_PREFIX);
-            final var vals = values.stream()
-                    .map(Object::toString)
-                    .collect(Collectors.joining(","));
-            final var matches = context.anyMatch(key, vals);
-            if (matches.isPresent() && ! matches.get()) parent.visible = false;
-            visible = false;
+    }
+
+    static boolean isXif(final String name) {
+        return name.startsWith(JsonDocNames.XIFNOT_PREFIX) || name.startsWith(JsonDocNames.XIF_PREFIX);
+    }
+
+    /** Does the xif-/xifnot- condition with the given (comma separated) values hide its object? */
+    static boolean hiddenByXif(final String name, final String vals, final Context context) {
+        if (name.startsWith(JsonDocNames.XIFNOT_PREFIX)) {
+            final var matches = context.anyMatch(removePrefix(name, JsonDocNames.XIFNOT_PREFIX), vals);
+            return matches.isPresent() && matches.get();
         }
+        final var matches = context.anyMatch(removePrefix(name, JsonDocNames.XIF_PREFIX), vals);
+        return matches.isPresent() && !matches.get();
     }
 
     private boolean notSchemaMode() { return !this.context.isSchemaMode(); }
@@ -273,12 +458,15 @@ class Node {
                 && !children.isEmpty();
     }
 
-    boolean isEmbeddable() {
+    boolean isEmbeddable() { return isEmbeddable(rows()); }
+
+    /** Given the rows as seen by the caller. */
+    boolean isEmbeddable(final List<Node> rows) {
         // Embed single 'items' (array content)
-        if (rows().size()==1 && JsonDocNames.ITEMS.equals(rows().get(0).name)) return true;
+        if (rows.size()==1 && JsonDocNames.ITEMS.equals(rows.get(0).name)) return true;
         // Embed if within limit set in context
         final int embedUpTo = Integer.parseInt(context.value(Context.EMBED_ROWS).orElse("-1"));
-        return rows().size() <= embedUpTo;
+        return rows.size() <= embedUpTo;
     }
 
     private Node removeThisNode() {
@@ -292,7 +480,7 @@ class Node {
     }
 
     private Node convertRequired() {
-        final var names = children.stream().map(n -> n.values.first()).toList();
+        final var names = children.stream().map(n -> n.values.first()).collect(Collectors.toSet());
         new LinkedList<>(parent.children).forEach(n -> {
             if (names.contains(n.name) && !n.isColumn()) {
                 n.required = true;
@@ -510,7 +698,8 @@ enum NodeRepresentation {
 }
 
 class NodeValues {
-    private final List<Object> values = new ArrayList<>();
+    /** Most nodes have no or one value: the list is made on the first add(), and trimmed by freeze(). */
+    private List<Object> values = null;
 
     static String listToString(final List<?> list, final String pfx, final String sep, final String sfx) {
         if (list==null || list.size()==0) return "";
@@ -521,13 +710,19 @@ class NodeValues {
         return sb.toString().trim();
     }
 
-    void add(final Object value) { values.add(value); }
-    boolean isNonEmpty() { return !values.isEmpty(); }
-    Object first() { return values.get(0); }
-    Stream<Object> stream() { return values.stream(); }
-    List<Object> all() { return values; }
-    void addAll(final List<Object> other) { values.addAll(other); }
+    void add(final Object value) { mutable().add(value); }
+    boolean isNonEmpty() { return values != null && !values.isEmpty(); }
+    Object first() { return all().get(0); }
+    Stream<Object> stream() { return all().stream(); }
+    List<Object> all() { return values == null ? List.of() : values; }
+    void addAll(final List<Object> other) { mutable().addAll(other); }
+    /** No more changes. */ void freeze() { values = List.copyOf(all()); }
     @Override public String toString() { return listToString(values, "", "\n", ""); }
+
+    private List<Object> mutable() {
+        if (values == null) values = new ArrayList<>(1);
+        return values;
+    }
 }
 
 //   Copyright 2021-2023, Lars Reed -- lars-at-kalars.net
@@ -2,27 +2,40 @@ package no.toll.jsondoc;
 
 import org.apache.commons.text.StringEscapeUtils;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 
-/** General functionality for the ...Printer classes. */
+/** General functionality for the ...Printer classes.
+ *  The node tree is only read, so several printers may use the same tree; what has been printed
+ *  (and tables moved up from embedded ones) is kept per printer. */
 abstract class Printer {
-    protected final StringBuilder buffer = new StringBuilder();
+    /** The output, see print(). */
+    protected Sink buffer;
     protected final Node rootNode;
+    private final Set<Node> processed = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Map<Node, List<Node>> adopted = new IdentityHashMap<>();
+    private final Map<Node, List<String>> adoptedColumns = new IdentityHashMap<>();
     protected static final Pattern USER_LINK_REGEXP = // links written by user
             Pattern.compile(JsonDocNames.USER_LINK_RE);
 
     Printer(final Node rootNode) { this.rootNode = rootNode; }
 
     protected static String keyToTitle(final String key) {
-        final var no_ = Node.removePrefix(key, JsonDocNames.XDOC_PREFIX).replaceAll("_", " ");
+        final var no_ = Node.removePrefix(key, JsonDocNames.XDOC_PREFIX).replace('_', ' ');
         if (no_.length()>=1)  return no_.substring(0, 1).toUpperCase() + no_.substring(1);
         return key;
     }
@@ -44,11 +57,65 @@ abstract class Printer {
         return q(content);
     }
 
-    protected final void doneIfNotTable(final Node node) { if (!node.isTable())  node.done(); }
+    /** Node not hidden, and not processed by this printer? */
+    protected final boolean isVisible(final Node node) { return node.isVisible() && !processed.contains(node); }
+    /** Mark as processed. */ protected final void done(final Node node) { processed.add(node); }
+    protected final void doneIfNotTable(final Node node) { if (!node.isTable())  done(node); }
+
+    /** Show child as one of parent's children from now on, in this printout only. */
+    protected final void adopt(final Node parent, final Node child) {
+        adopted.computeIfAbsent(parent, k -> new ArrayList<>()).add(child);
+        adoptedColumns.remove(parent);
+    }
+
+    private List<Node> children(final Node node) {
+        final var extra = adopted.get(node);
+        if (extra == null) return node.children;
+        final List<Node> all = new ArrayList<>(node.children);
+        all.addAll(extra);
+        return all;
+    }
+
+    protected final List<Node> rows(final Node node) {
+        return node.rows(children(node)).stream().filter(this::isVisible).toList();
+    }
+
+    protected final List<Node> subTables(final Node node) {
+        return node.subTables(children(node)).stream().filter(this::isVisible).toList();
+    }
+
+    /** Asked for once per row -- kept here for adoptive parents, by the node for the rest. */
+    protected final List<String> columns(final Node node) {
+        if (!adopted.containsKey(node)) return node.columns();
+        return adoptedColumns.computeIfAbsent(node, n -> n.columns(children(n)));
+    }
     protected String createUrlLink(final String url, final String linkText) { return url; }
     protected String q(final String s) { return s; }
 
+    /** Write the document to out, a chunk at a time (out is neither flushed nor closed). */
+    final void print(final Appendable out) throws IOException {
+        buffer = new Sink(out, isJson());
+        try { render(); }
+        catch (final UncheckedIOException e) { throw e.getCause(); }
+        buffer.flush();
+    }
+
+    /** The whole document, as a String. */
+    public String create() {
+        final var out = new StringBuilder();
+        try { print(out); }
+        catch (final IOException e) { throw new UncheckedIOException(e); } // not from a StringBuilder
+        return out.toString();
+    }
+
+    /** Write the document to buffer. */
+    protected abstract void render();
+
+    /** JSON output, to be cleaned of commas before closing brackets (see Sink)? */
+    protected boolean isJson() { return false; }
+
     protected void handleException(final Node node, final Throwable t) {
+        if (t instanceof final UncheckedIOException e) throw e; // from the output, not this node
         if (t instanceof final HandledException he)  throw he;
         System.err.println(node.qName() + ": " + t.toString());
         throw new HandledException(t);
@@ -62,10 +129,8 @@ class DebugPrinter extends Printer {
 
     private String makeIndent(final int level) { return "  ".repeat(level); }
 
-    public String create() {
-        handleNode(rootNode, 0);
-        return buffer.toString();
-    }
+    @Override
+    protected void render() { handleNode(rootNode, 0); }
 
     private void handleNode(final Node node, final int level) {
         buffer.append(makeIndent(level))
@@ -104,15 +169,15 @@ class HtmlPrinter extends Printer {
     @Override
     protected String q(final String s) {
         return StringEscapeUtils.escapeXml11(s)
-                .replaceAll("\t", "&nbsp;&nbsp;")
-                .replaceAll("\n", "<br/>");
+                .replace("\t", "&nbsp;&nbsp;")
+                .replace("\n", "<br/>");
     }
 
-    public String create() {
+    @Override
+    protected void render() {
         head();
         handleTableNode(rootNode, 0);
         tail();
-        return buffer.toString();
     }
 
     protected void head() {
@@ -140,16 +205,16 @@ class HtmlPrinter extends Printer {
 
     private void handleTableNode(final Node node, final int level) {
         try {
-            if (!node.isVisible()) return;
-            if (node.rows().size() > 0) {
+            if (!isVisible(node)) return;
+            if (rows(node).size() > 0) {
                 if (level == 0) buffer.append(headingWithId(node)); // not embedded
                 buffer.append(tableHead(node));
-                for (final var row : node.rows()) handleRowNode(row, level);
+                for (final var row : rows(node)) handleRowNode(row, level);
                 buffer.append(tableEnd());
             }
-            for (final var sub : node.subTables())
+            for (final var sub : subTables(node))
                 if (level == 0) handleTableNode(sub, 0);
-                else node.parent().add(sub);
+                else adopt(node.parent(), sub);
         }
         catch (final Throwable t) { handleException(node, t); }
     }
@@ -174,7 +239,7 @@ class HtmlPrinter extends Printer {
 
     private String headerRow(final Node node) {
         final var sb = new StringBuilder();
-        for (final var c : node.columns())
+        for (final var c : columns(node))
             sb.append("<th>")
               .append(q(keyToTitle(c)))
               .append("</th>");
@@ -185,7 +250,7 @@ class HtmlPrinter extends Printer {
     private String tableEnd() { return "</tbody></table>\n"; }
 
     private void handleRowNode(final Node rowNode, final int level) {
-        if (!rowNode.isVisible()) return; // Hidden or already processed
+        if (!isVisible(rowNode)) return; // Hidden or already processed
         doneIfNotTable(rowNode);
         final var isDefs = JsonDocNames.DEFS.equals(rowNode.name);
         buffer.append("<tr>") .append("<td>")
@@ -193,7 +258,7 @@ class HtmlPrinter extends Printer {
               .append(q(rowNode.name))
               .append(isDefs? ")" : "")
               .append("</td>");
-        for (final var col : rowNode.parent().columns()) {
+        for (final var col : columns(rowNode.parent())) {
             if (JsonDocNames.FIELD.equals(col)) continue; // handled above
             buffer.append("<td>");
             final var cellNode = rowNode.getChild(col);
@@ -217,9 +282,9 @@ class HtmlPrinter extends Printer {
                     lineBreakIfNeeded();
                     if (shouldEmbed(rowNode, level)) {
                         handleTableNode(rowNode, level + 1);
-                        rowNode.done();
+                        done(rowNode);
                     }
-                    else if (rowNode.rows().size() > 0) {
+                    else if (rows(rowNode).size() > 0) {
                         buffer.append(createInternalLink(rowNode));
                     }
                 }
@@ -230,11 +295,11 @@ class HtmlPrinter extends Printer {
     }
 
     private void lineBreakIfNeeded() {
-        if (!buffer.toString().endsWith("<td>") && !buffer.toString().endsWith("<br/>"))
+        if (!buffer.endsWith("<td>") && !buffer.endsWith("<br/>"))
             buffer.append("<br/>");
     }
 
-    private boolean shouldEmbed(final Node node, final int level) {return level==0 && node.isEmbeddable(); }
+    private boolean shouldEmbed(final Node node, final int level) {return level==0 && node.isEmbeddable(rows(node)); }
 
     private void createCell(final Node node) {
         final var cellVal = NodeValues.listToString(node.values.all(), "", "\n", "");
@@ -305,32 +370,30 @@ class WikiPrinter extends HtmlPrinter {
 class MarkdownPrinter extends Printer {
 
     private static final String BR = "<br />";
+    private static final Pattern MARKDOWN_SPECIAL = Pattern.compile("[-`*|_{}()#+\\]\\[]");
 
     MarkdownPrinter(final Node rootNode) { super(rootNode); }
 
     @Override
     protected String q(final String s) {
-        return s.replaceAll("[-`*|_{}()#+]", "\\\\$0")
-                .replaceAll("[]\\[]", "\\\\$0")
-                .replaceAll("\t", "&nbsp;&nbsp;")
-                .replaceAll("\n", BR);
+        return MARKDOWN_SPECIAL.matcher(s).replaceAll("\\\\$0")
+                .replace("\t", "&nbsp;&nbsp;")
+                .replace("\n", BR);
     }
 
-    public String create() {
-        handleTableNode(rootNode, 0);
-        return buffer.toString();
-    }
+    @Override
+    protected void render() { handleTableNode(rootNode, 0); }
 
     private void handleTableNode(final Node node, final int level) {
         try {
-            if (!node.isVisible()) return;
-            if (node.rows().size() > 0) {
+            if (!isVisible(node)) return;
+            if (rows(node).size() > 0) {
                 if (level == 0) buffer.append(headingWithId(node)); // not embedded
                 buffer.append(tableHead(node));
-                for (final var row : node.rows()) handleRowNode(row, level);
+                for (final var row : rows(node)) handleRowNode(row, level);
             }
             if (level > 0) return; // No embedding in embedding...
-            for (final var sub : node.subTables()) handleTableNode(sub, 0);
+            for (final var sub : subTables(node)) handleTableNode(sub, 0);
         }
         catch (final Throwable t) { handleException(node, t); }
     }
@@ -348,14 +411,14 @@ class MarkdownPrinter extends Printer {
     private String tableHead(final Node node) {
         final var sb = new StringBuilder();
         sb.append("| ");
-        for (final var c : node.columns()) sb.append(q(keyToTitle(c))).append(" |");
+        for (final var c : columns(node)) sb.append(q(keyToTitle(c))).append(" |");
         sb.append("\n| ");
-        for (final var ignored : node.columns()) sb.append(" ----- |");
+        for (final var ignored : columns(node)) sb.append(" ----- |");
         return sb.append("\n").toString();
     }
 
     private void handleRowNode(final Node rowNode, final int level) {
-        if (!rowNode.isVisible()) return; // Hidden or already processed
+        if (!isVisible(rowNode)) return; // Hidden or already processed
         doneIfNotTable(rowNode);
         final var isDefs = JsonDocNames.DEFS.equals(rowNode.name);
         buffer.append("| ")
@@ -363,7 +426,7 @@ class MarkdownPrinter extends Printer {
                 .append(q(rowNode.name))
                 .append(isDefs? ")" : "")
                 .append(" |");
-        for (final var row : rowNode.parent().columns()) {
+        for (final var row : columns(rowNode.parent())) {
             if (JsonDocNames.FIELD.equals(row)) continue; // handled above
             buffer.append(" ");
             final var cellNode = rowNode.getChild(row);
@@ -389,9 +452,9 @@ class MarkdownPrinter extends Printer {
                     //noinspection ConstantConditions
                     if (shouldEmbed(rowNode, level)) {
                         handleTableNode(rowNode, level + 1);
-                        rowNode.done();
+                        done(rowNode);
                     }
-                    else if (rowNode.rows().size() > 0) buffer.append(createInternalLink(rowNode));
+                    else if (rows(rowNode).size() > 0) buffer.append(createInternalLink(rowNode));
                 }
             }
             buffer.append(" |");
@@ -400,13 +463,13 @@ class MarkdownPrinter extends Printer {
     }
 
     private void lineBreakIfNeeded() {
-        if (!buffer.toString().endsWith("| ") && !buffer.toString().endsWith(BR))
+        if (!buffer.endsWith("| ") && !buffer.endsWith(BR))
             buffer.append(BR);
     }
 
     // Embedding currently not supported
     @SuppressWarnings({"PointlessBooleanExpression", "unused"})
-    private boolean shouldEmbed(final Node node, final int level) { return false && node.isEmbeddable(); }
+    private boolean shouldEmbed(final Node node, final int level) { return false && node.isEmbeddable(rows(node)); }
 
     private void createCell(final Node node) {
         final var cellVal = NodeValues.listToString(node.values.all(), "", "\n", "");
@@ -460,21 +523,21 @@ digraph G {
     GraphPrinter(final Node rootNode) { super(rootNode); }
     @Override protected String q(final String s) { return "\"" + s + "\""; }
 
-    public String create() {
+    @Override
+    protected void render() {
         buffer.append(PREAMBLE);
         handleTableNode(rootNode);
         buffer.append("}\n");
-        return buffer.toString();
     }
 
     private void handleTableNode(final Node node) {
         try {
-            if (!node.isVisible()) return;
-            if (node.rows().size() > 0) {
+            if (!isVisible(node)) return;
+            if (rows(node).size() > 0) {
                 makeNode(node);
-                for (final var row : node.rows()) handleRowNode(row);
+                for (final var row : rows(node)) handleRowNode(row);
             }
-            for (final var sub : node.subTables()) handleTableNode(sub);
+            for (final var sub : subTables(node)) handleTableNode(sub);
         }
         catch (final Throwable t) { handleException(node, t); }
     }
@@ -487,9 +550,9 @@ digraph G {
 
 
     private void handleRowNode(final Node rowNode) {
-        if (!rowNode.isVisible()) return; // Hidden or already processed
+        if (!isVisible(rowNode)) return; // Hidden or already processed
         doneIfNotTable(rowNode);
-        if (rowNode.isTable() && rowNode.rows().size()>0) createEdge(rowNode);
+        if (rowNode.isTable() && rows(rowNode).size()>0) createEdge(rowNode);
     }
 
     private void createEdge(final Node node) {
@@ -521,17 +584,12 @@ class SchemaPrinter extends Printer {
     protected String makeIndent(final Node node) { return " ".repeat(2* (node.level()-1));}
     void skipLastComma() { /*Delete when sure it won't be missed...:  buffer.setLength((buffer.length()-2)); */}
 
-    protected static String schemaClean(final String s) {
-        return s.replaceAll("(?s),(\\s*[\\]\\[}])","$1")
-                .replaceAll("\n\n+", "\n");
-    }
+    @Override protected boolean isJson() { return true; }
 
-    protected String q(final String s) { return s.replaceAll("\n", "\\\\n"); }
+    protected String q(final String s) { return s.replace("\n", "\\n"); }
 
-    public String create() {
-        handleNode(rootNode);
-        return schemaClean(buffer.toString());
-    }
+    @Override
+    protected void render() { handleNode(rootNode); }
 
     protected void handleNode(final Node node) {
         try {
@@ -580,7 +638,7 @@ class SchemaPrinter extends Printer {
         catch (final Throwable t) { handleException(node, t); }
     }
 
-    protected StringBuilder appendName(final Node node) {
+    protected Sink appendName(final Node node) {
         buffer.append(makeIndent(node))
                 .append('"').append(node.name).append('"')
                 .append(": ");
@@ -602,12 +660,11 @@ class SamplePrinter extends SchemaPrinter {
     }
 
     @Override
-    public String create() {
+    protected void render() {
         buffer.append("{\n");
         handleSampleNode(rootNode, 0, 0);
         skipLastComma();
         buffer.append("\n}");
-        return schemaClean(buffer.toString());
     }
 
     /** Test output stripped of blanks and quotes. */
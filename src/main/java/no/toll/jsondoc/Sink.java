@@ -0,0 +1,109 @@
+package no.toll.jsondoc;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/** Where a Printer writes: output is collected in chunks, and passed on to the Appendable (a Writer, or a
+ *  StringBuilder for Printer.create()) as each chunk fills, so the whole document is never held in memory.
+ *  For JSON output, commas before a closing bracket, and empty lines, are removed on the way. */
+final class Sink {
+    static final int CHUNK = 1 << 16;
+    /** Longest suffix endsWith() can see after a chunk has been passed on. */
+    private static final int TAIL = 16;
+
+    private final Appendable out;
+    private final boolean cleanJson;
+    private final StringBuilder chunk = new StringBuilder(CHUNK + 1024);
+    private String tail = "";
+    // cleanJson: a comma with the blanks after it, held back until we know what follows
+    private final StringBuilder pending = new StringBuilder();
+    private boolean newline = false;
+
+    Sink(final Appendable out, final boolean cleanJson) {
+        this.out = out;
+        this.cleanJson = cleanJson;
+    }
+
+    Sink append(final CharSequence s) {
+        if (cleanJson) for (int i = 0; i < s.length(); i++) clean(s.charAt(i));
+        else chunk.append(s);
+        return full();
+    }
+
+    Sink append(final char c) {
+        if (cleanJson) clean(c);
+        else chunk.append(c);
+        return full();
+    }
+
+    Sink append(final Object o) { return append(String.valueOf(o)); }
+
+    /** Does the output so far end with this (not for cleanJson)? */
+    boolean endsWith(final String suffix) {
+        final int start = chunk.length() - suffix.length();
+        if (start >= 0) return chunk.indexOf(suffix, start) == start;
+        return (tail + chunk).endsWith(suffix);
+    }
+
+    /** Pass on everything written (the Appendable itself is not flushed). */
+    void flush() throws IOException {
+        if (pending.length() > 0) emitPending(); // a trailing comma stays
+        tail = chunk.length() >= TAIL ? chunk.substring(chunk.length() - TAIL) : tail + chunk;
+        out.append(chunk);
+        chunk.setLength(0);
+    }
+
+    private Sink full() {
+        if (chunk.length() < CHUNK) return this;
+        final var held = new StringBuilder(pending); // the comma is not decided yet
+        pending.setLength(0);
+        try { flush(); }
+        catch (final IOException e) { throw new UncheckedIOException(e); }
+        pending.append(held);
+        return this;
+    }
+
+    private void clean(final char c) {
+        if (pending.length() > 0) {
+            if (isBlank(c)) {
+                pending.append(c);
+                return;
+            }
+            if (c == ']' || c == '[' || c == '}') pending.deleteCharAt(0);
+            emitPending();
+        }
+        if (c == ',') pending.append(c);
+        else emit(c);
+    }
+
+    private void emitPending() {
+        for (int i = 0; i < pending.length(); i++) emit(pending.charAt(i));
+        pending.setLength(0);
+    }
+
+    /** Only one newline in a row. */
+    private void emit(final char c) {
+        if (c == '\n' && newline) return;
+        newline = c == '\n';
+        chunk.append(c);
+    }
+
+    /** As \s in a regular expression. */
+    private static boolean isBlank(final char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
+
+//   Copyright 2021-2023, Lars Reed -- lars-at-kalars.net
+//
+//           Licensed under the Apache License, Version 2.0 (the "License");
+//           you may not use this file except in compliance with the License.
+//           You may obtain a copy of the License at
+//
+//           http://www.apache.org/licenses/LICENSE-2.0
+//
+//           Unless required by applicable law or agreed to in writing, software
+//           distributed under the License is distributed on an "AS IS" BASIS,
+//           WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//           See the License for the specific language governing permissions and
+//           limitations under the License.
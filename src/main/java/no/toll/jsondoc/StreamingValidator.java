@@ -0,0 +1,477 @@
+package no.toll.jsondoc;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/** engine=native (or streaming): validates a document while reading it, from Jackson parser events,
+ *  against a SchemaRule tree compiled from the schema's Node tree.
+ *  Only the path from the root to the current value is kept, so documents of any size can be checked.
+ *  Supports type, properties, required, additionalProperties, prefixItems, items, enum, const,
+ *  minimum/maximum (and the exclusive forms), minLength/maxLength, minItems/maxItems, pattern and local $ref.
+ *  Other keywords are ignored, with a warning when the schema is compiled; additionalProperties is then
+ *  skipped too, if one of them may allow more properties (patternProperties, allOf, ...). */
+class StreamingValidator {
+    static final String ENGINE = "native";
+    static final String ENGINE_ALIAS = "streaming";
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private final SchemaRule root;
+    private final int maxErrors;
+    private final List<String> errors = new ArrayList<>();
+
+    /** Thrown to stop reading when maxErrors is reached. */
+    private static final class Stop extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        Stop() { super(null, null, false, false); }
+    }
+
+    StreamingValidator(final SchemaRule root, final int maxErrors) {
+        this.root = root;
+        this.maxErrors = maxErrors;
+    }
+
+    static boolean isSelected(final Context context) {
+        return context.value(Context.ENGINE)
+                .map(e -> ENGINE.equalsIgnoreCase(e) || ENGINE_ALIAS.equalsIgnoreCase(e))
+                .orElse(false);
+    }
+
+    List<String> validate(final String data) {
+        try (final var parser = FACTORY.createParser(data)) { return validate(parser); }
+        catch (final IOException e) { return List.of(e.getMessage()); }
+    }
+
+    List<String> validate(final InputStream in) throws IOException {
+        try (final var parser = FACTORY.createParser(in)) { return validate(parser); }
+    }
+
+    /** Messages for the next document from the parser, empty if it is valid. */
+    private List<String> validate(final JsonParser parser) throws IOException {
+        errors.clear();
+        try {
+            final var token = parser.nextToken();
+            if (token == null) error(null, "empty document");
+            else {
+                value(parser, token, root, null);
+                if (hasTrailingContent(parser)) error(null, "trailing content after the document");
+            }
+        }
+        catch (final Stop e) {
+            errors.add("Stopped after " + maxErrors + " messages");
+        }
+        catch (final JsonParseException e) {
+            errors.add(e.getOriginalMessage() + " at line " + e.getLocation().getLineNr()
+                    + ", column " + e.getLocation().getColumnNr());
+        }
+        return List.copyOf(errors);
+    }
+
+    private static boolean hasTrailingContent(final JsonParser parser) throws IOException {
+        try { return parser.nextToken() != null; }
+        catch (final JsonParseException e) { return true; }
+    }
+
+    /** Where we are in the document, only materialized as a string for messages. */
+    private record Location(Location parent, String name, int index) {
+        @Override
+        public String toString() {
+            final var prefix = parent == null ? "$" : parent.toString();
+            return name == null ? prefix + "[" + index + "]" : prefix + "." + name;
+        }
+    }
+
+    private void error(final Location at, final String message) {
+        errors.add((at == null ? "$" : at.toString()) + ": " + message);
+        if (maxErrors > 0 && errors.size() >= maxErrors) throw new Stop();
+    }
+
+    private void error(final Location at, final String message, final JsonParser parser) throws IOException {
+        error(at, message);
+        parser.skipChildren();
+    }
+
+    private void value(final JsonParser parser, final JsonToken token, final SchemaRule schemaRule,
+                       final Location at) throws IOException {
+        final var rule = schemaRule == null ? null : schemaRule.target();
+        if (rule == null) parser.skipChildren();
+        else if (rule.rejectsAll) error(at, "no value allowed", parser);
+        else if (!rule.allowsType(token, parser))
+            error(at, "expected " + rule.typeNames + ", found " + SchemaRule.typeOf(token, parser), parser);
+        else if (rule.hasValueChecks() && token.isStructStart()) compared(parser, token, rule, at);
+        else {
+            switch (token) {
+                case START_OBJECT -> object(parser, rule, at);
+                case START_ARRAY -> array(parser, rule, at);
+                case VALUE_STRING -> {
+                    if (rule.hasStringChecks()) checks(rule.stringChecks, parser.getText(), at);
+                }
+                case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> {
+                    if (rule.hasNumberChecks()) checks(rule.numberChecks, parser.getDecimalValue(), at);
+                }
+                default -> {}
+            }
+            if (rule.hasValueChecks()) values(SchemaRule.scalar(token, parser), rule, at);
+        }
+    }
+
+    private <T> void checks(final List<SchemaRule.Check<T>> checks, final T value, final Location at) {
+        for (final var check : checks) {
+            final var failure = check.failure(value);
+            if (failure != null) error(at, failure);
+        }
+    }
+
+    private void object(final JsonParser parser, final SchemaRule rule, final Location at) throws IOException {
+        final var found = rule.required.length == 0 ? null : new BitSet(rule.required.length);
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_OBJECT) {
+            final var name = parser.currentName();
+            token = parser.nextToken();
+            if (found != null) {
+                final var index = rule.requiredIndex.get(name);
+                if (index != null) found.set(index);
+            }
+            final var property = rule.properties.get(name);
+            if (property != null) value(parser, token, property.rule(), new Location(at, name, 0));
+            else if (rule.additional != null) value(parser, token, rule.additional, new Location(at, name, 0));
+            else parser.skipChildren();
+        }
+        if (found == null) return;
+        for (int i = found.nextClearBit(0); i < rule.required.length; i = found.nextClearBit(i + 1))
+            error(at, "required property " + rule.required[i] + " is missing");
+    }
+
+    private void array(final JsonParser parser, final SchemaRule rule, final Location at) throws IOException {
+        int count = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            final var each = count < rule.prefixItems.size() ? rule.prefixItems.get(count) : rule.items;
+            if (each != null) value(parser, token, each, new Location(at, null, count));
+            else parser.skipChildren();
+            count++;
+        }
+        if (rule.minItems >= 0 && count < rule.minItems) error(at, count + " items, minItems is " + rule.minItems);
+        if (rule.maxItems >= 0 && count > rule.maxItems) error(at, count + " items, maxItems is " + rule.maxItems);
+    }
+
+    /** An object or array with enum/const: it is compared as a whole, so it is copied once to be read twice. */
+    private void compared(final JsonParser parser, final JsonToken token, final SchemaRule rule, final Location at)
+            throws IOException {
+        final var copy = new StringWriter();
+        try (final var generator = FACTORY.createGenerator(copy)) { generator.copyCurrentStructure(parser); }
+        try (final var again = FACTORY.createParser(copy.toString())) {
+            if (again.nextToken() == JsonToken.START_OBJECT) object(again, rule, at);
+            else array(again, rule, at);
+        }
+        try (final var again = FACTORY.createParser(copy.toString())) {
+            values(SchemaRule.value(again.nextToken(), again), rule, at);
+        }
+    }
+
+    /** enum and const. */
+    private void values(final Object value, final SchemaRule rule, final Location at) {
+        if (rule.constValue != null && !rule.constValue.equals(value)) error(at, "must be " + rule.constValue);
+        if (rule.enumValues != null && !rule.enumValues.contains(value)) error(at, "not one of " + rule.enumNames);
+    }
+}
+
+/** One (sub)schema compiled from the schema's Node tree: patterns compiled, enums in hash sets,
+ *  required properties numbered for a BitSet per object, $refs linked directly to their targets. */
+class SchemaRule {
+    /** A precompiled check of a scalar value, returns null if ok, or else the message. */
+    @FunctionalInterface
+    interface Check<T> { String failure(T value); }
+
+    /** A declared property (rule null: anything goes). */
+    record Property(SchemaRule rule) {}
+
+    private static final Object NULL = new Object() {
+        @Override public String toString() { return "null"; }
+    };
+    private static final String PREFIX_ITEMS = "prefixItems";
+    private static final List<String> TYPES = List.of("object", "array", "string", "integer", "number", "boolean", "null");
+    private static final int INTEGER = 1 << TYPES.indexOf("integer");
+    private static final int NUMBER = 1 << TYPES.indexOf("number");
+    private static final Set<String> SUPPORTED = Set.of(
+            JsonDocNames.TYPE, JsonDocNames.PROPERTIES, JsonDocNames.REQUIRED, JsonDocNames.ADDITIONAL_PROPERTIES,
+            JsonDocNames.ITEMS, JsonDocNames.ENUM, JsonDocNames.CONST, JsonDocNames.MINIMUM, JsonDocNames.MAXIMUM,
+            JsonDocNames.EXCLUSIVE_MINIMUM, JsonDocNames.EXCLUSIVE_MAXIMUM, JsonDocNames.MIN_LENGTH,
+            JsonDocNames.MAX_LENGTH, JsonDocNames.MIN_ITEMS, JsonDocNames.MAX_ITEMS, JsonDocNames.PATTERN,
+            JsonDocNames.REF, JsonDocNames.DEFS, "definitions",
+            // Annotations, nothing to check
+            "$schema", JsonDocNames.ID, JsonDocNames.TITLE, JsonDocNames.DESCRIPTION, JsonDocNames.DEFAULT,
+            JsonDocNames.EXAMPLES, JsonDocNames.FORMAT, JsonDocNames.DEPRECATED, JsonDocNames.READ_ONLY,
+            JsonDocNames.WRITE_ONLY, JsonDocNames.ADDITIONAL_ITEMS, "$comment");
+    /** Not checked, and they change which properties count as additional. */
+    private static final Set<String> WIDENS_PROPERTIES = Set.of(
+            "patternProperties", "unevaluatedProperties", "dependentSchemas", "dependencies",
+            "allOf", "anyOf", "oneOf", "if", "then", "else");
+
+    private int types = 0; // bits by TYPES index, 0: any
+    String typeNames = "";
+    final Map<String, Property> properties = new HashMap<>();
+    String[] required = {};
+    final Map<String, Integer> requiredIndex = new HashMap<>(); // name -> index in required
+    SchemaRule additional; // null: anything goes
+    List<SchemaRule> prefixItems = List.of(); // a null element: anything goes
+    SchemaRule items; // after prefixItems
+    final List<Check<String>> stringChecks = new ArrayList<>();
+    final List<Check<BigDecimal>> numberChecks = new ArrayList<>();
+    Set<Object> enumValues;
+    String enumNames; // in schema order, for messages
+    Object constValue;
+    int minItems = -1;
+    int maxItems = -1;
+    boolean rejectsAll = false; // the schema "false"
+    private String ref;
+    private SchemaRule target = this; // where $ref leads
+
+    /** Compile the clean schema text (as from SchemaPrinter). */
+    static SchemaRule compile(final String schemaJson) {
+        final var root = new JsonDocParser(new Context(Context.SCHEMA_MODE)).parseString(schemaJson);
+        final List<SchemaRule> refs = new ArrayList<>();
+        final var rule = compile(root, refs);
+        final Map<String, SchemaRule> defs = new HashMap<>();
+        for (final var name : List.of(JsonDocNames.DEFS, "definitions"))
+            root.getChild(name).ifPresent(d -> d.children.forEach(def ->
+                    defs.put("#/" + name + "/" + def.name, compile(def, refs))));
+        defs.put("#", rule);
+        for (final var r : refs) r.link(defs);
+        return rule;
+    }
+
+    /** A schema object, or true/false. */
+    private static SchemaRule compile(final Node node, final List<SchemaRule> refs) {
+        if (NodeType.Value.equals(node.nodeType) && DataType.BooleanType.equals(node.dataType)) {
+            if (Boolean.TRUE.equals(node.values.first())) return null;
+            final var none = new SchemaRule();
+            none.rejectsAll = true;
+            return none;
+        }
+        final var rule = new SchemaRule();
+        final List<String> required = new ArrayList<>();
+        for (final var child : node.children)
+            if (!child.name.isEmpty()) rule.keyword(child, refs, required); // not the root's hidden top row
+        if (rule.additional != null && node.children.stream().anyMatch(c -> WIDENS_PROPERTIES.contains(c.name))) {
+            node.getChild(JsonDocNames.ADDITIONAL_PROPERTIES).ifPresent(a -> Logger.warn("Not checked:", a.qName()));
+            rule.additional = null;
+        }
+        rule.required = required.stream().distinct().toArray(String[]::new);
+        for (int i = 0; i < rule.required.length; i++) rule.requiredIndex.put(rule.required[i], i);
+        if (rule.ref != null) refs.add(rule);
+        return rule;
+    }
+
+    private void keyword(final Node child, final List<SchemaRule> refs, final List<String> required) {
+        switch (child.name) {
+            case JsonDocNames.TYPE -> {
+                final var names = strings(child);
+                if (!TYPES.containsAll(names)) {
+                    Logger.warn("Not checked, unknown type in", child.qName() + ": " + names);
+                    return;
+                }
+                for (final var name : names) types |= 1 << TYPES.indexOf(name);
+                typeNames = String.join(" or ", names);
+            }
+            case JsonDocNames.PROPERTIES -> child.children.forEach(p ->
+                    properties.put(p.name, new Property(compile(p, refs))));
+            case JsonDocNames.REQUIRED -> required.addAll(strings(child));
+            case JsonDocNames.ADDITIONAL_PROPERTIES -> additional = compile(child, refs);
+            case PREFIX_ITEMS -> {
+                final List<SchemaRule> rules = new ArrayList<>();
+                child.children.forEach(item -> rules.add(compile(item, refs)));
+                prefixItems = rules;
+            }
+            case JsonDocNames.ITEMS -> {
+                if (NodeType.Array.equals(child.nodeType)) Logger.warn("Ignoring tuple form of", child.qName());
+                else items = compile(child, refs);
+            }
+            case JsonDocNames.ENUM -> {
+                final var values = child.children.stream().map(SchemaRule::value).toList();
+                enumValues = new HashSet<>(values);
+                enumNames = values.toString();
+            }
+            case JsonDocNames.CONST -> constValue = value(child);
+            case JsonDocNames.MINIMUM -> {
+                final var min = decimal(child);
+                numberChecks.add(n -> n.compareTo(min) < 0 ? n + " is less than minimum " + min : null);
+            }
+            case JsonDocNames.MAXIMUM -> {
+                final var max = decimal(child);
+                numberChecks.add(n -> n.compareTo(max) > 0 ? n + " is greater than maximum " + max : null);
+            }
+            case JsonDocNames.EXCLUSIVE_MINIMUM -> {
+                final var min = decimal(child);
+                numberChecks.add(n -> n.compareTo(min) <= 0 ? n + " is not greater than exclusiveMinimum " + min : null);
+            }
+            case JsonDocNames.EXCLUSIVE_MAXIMUM -> {
+                final var max = decimal(child);
+                numberChecks.add(n -> n.compareTo(max) >= 0 ? n + " is not less than exclusiveMaximum " + max : null);
+            }
+            case JsonDocNames.MIN_LENGTH -> {
+                final int min = decimal(child).intValue();
+                stringChecks.add(s -> {
+                    final int length = s.codePointCount(0, s.length());
+                    return length < min ? "length " + length + ", minLength is " + min : null;
+                });
+            }
+            case JsonDocNames.MAX_LENGTH -> {
+                final int max = decimal(child).intValue();
+                stringChecks.add(s -> {
+                    if (s.length() <= max) return null; // no need to count code points
+                    final int length = s.codePointCount(0, s.length());
+                    return length > max ? "length " + length + ", maxLength is " + max : null;
+                });
+            }
+            case JsonDocNames.MIN_ITEMS -> minItems = decimal(child).intValue();
+            case JsonDocNames.MAX_ITEMS -> maxItems = decimal(child).intValue();
+            case JsonDocNames.PATTERN -> {
+                final var pattern = Pattern.compile(child.values.first().toString());
+                stringChecks.add(s -> pattern.matcher(s).find() ? null : "does not match pattern " + pattern.pattern());
+            }
+            case JsonDocNames.REF -> ref = child.values.first().toString();
+            default -> { if (!SUPPORTED.contains(child.name)) Logger.warn("Not checked:", child.qName()); }
+        }
+    }
+
+    /** Point $ref directly at the referenced rule; anything else is not checked. */
+    private void link(final Map<String, SchemaRule> defs) {
+        var rule = this;
+        for (int hops = 0; rule != null && rule.ref != null; hops++) {
+            if (hops > defs.size()) throw new IllegalStateException("Circular $ref " + ref);
+            if (!defs.containsKey(rule.ref)) Logger.warn("Only local references are checked:", rule.ref);
+            rule = defs.get(rule.ref);
+        }
+        target = rule;
+    }
+
+    /** The rule to apply: this, or what $ref leads to (null if anything goes). */
+    SchemaRule target() { return target; }
+
+    boolean hasStringChecks() { return !stringChecks.isEmpty(); }
+    boolean hasNumberChecks() { return !numberChecks.isEmpty(); }
+    boolean hasValueChecks() { return enumValues != null || constValue != null; }
+
+    boolean allowsType(final JsonToken token, final JsonParser parser) throws IOException {
+        if (types == 0) return true;
+        return switch (token) {
+            case START_OBJECT -> (types & 1) != 0;
+            case START_ARRAY -> (types & 1 << 1) != 0;
+            case VALUE_STRING -> (types & 1 << 2) != 0;
+            case VALUE_NUMBER_INT -> (types & (INTEGER | NUMBER)) != 0;
+            case VALUE_NUMBER_FLOAT -> (types & NUMBER) != 0
+                    || ((types & INTEGER) != 0 && number(parser.getDecimalValue()).scale() <= 0);
+            case VALUE_TRUE, VALUE_FALSE -> (types & 1 << 5) != 0;
+            default -> (types & 1 << 6) != 0;
+        };
+    }
+
+    private static List<String> strings(final Node node) {
+        if (NodeType.Array.equals(node.nodeType)) return node.children.stream()
+                .map(n -> n.values.first().toString())
+                .toList();
+        return List.of(node.values.first().toString());
+    }
+
+    private static BigDecimal decimal(final Node node) { return new BigDecimal(node.values.first().toString()); }
+
+    /** Comparable form of a scalar enum/const value in the schema. */
+    private static Object scalar(final Node node) {
+        if (!node.values.isNonEmpty()) return NULL;
+        return switch (node.dataType) {
+            case IntType, DoubleType -> number(decimal(node));
+            default -> node.values.first();
+        };
+    }
+
+    /** Comparable form of an enum/const value in the schema, objects as maps and arrays as lists. */
+    private static Object value(final Node node) {
+        return switch (node.nodeType) {
+            case Object -> {
+                final Map<String, Object> map = new HashMap<>();
+                node.children.forEach(c -> map.put(c.name, value(c)));
+                yield map;
+            }
+            case Array -> node.children.stream().map(SchemaRule::value).toList();
+            default -> scalar(node);
+        };
+    }
+
+    /** Comparable form of the current value in the data, as value(Node); objects and arrays are read to the end. */
+    static Object value(final JsonToken token, final JsonParser parser) throws IOException {
+        return switch (token) {
+            case START_OBJECT -> {
+                final Map<String, Object> map = new HashMap<>();
+                while (parser.nextToken() != JsonToken.END_OBJECT) {
+                    final var name = parser.currentName();
+                    map.put(name, value(parser.nextToken(), parser));
+                }
+                yield map;
+            }
+            case START_ARRAY -> {
+                final List<Object> list = new ArrayList<>();
+                for (var t = parser.nextToken(); t != JsonToken.END_ARRAY; t = parser.nextToken()) list.add(value(t, parser));
+                yield list;
+            }
+            default -> scalar(token, parser);
+        };
+    }
+
+    /** Comparable form of the current scalar value in the data. */
+    static Object scalar(final JsonToken token, final JsonParser parser) throws IOException {
+        return switch (token) {
+            case VALUE_STRING -> parser.getText();
+            case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> number(parser.getDecimalValue());
+            case VALUE_TRUE -> Boolean.TRUE;
+            case VALUE_FALSE -> Boolean.FALSE;
+            default -> NULL;
+        };
+    }
+
+    /** Numbers with the same value are equal, regardless of notation. */
+    private static BigDecimal number(final BigDecimal n) {
+        return n.signum() == 0 ? BigDecimal.ZERO : n.stripTrailingZeros();
+    }
+
+    /** The JSON Schema type name of the current value. */
+    static String typeOf(final JsonToken token, final JsonParser parser) throws IOException {
+        return switch (token) {
+            case START_OBJECT -> "object";
+            case START_ARRAY -> "array";
+            case VALUE_STRING -> "string";
+            case VALUE_NUMBER_INT -> "integer";
+            case VALUE_NUMBER_FLOAT -> number(parser.getDecimalValue()).scale() <= 0 ? "integer" : "number";
+            case VALUE_TRUE, VALUE_FALSE -> "boolean";
+            default -> "null";
+        };
+    }
+}
+
+//   Copyright 2021-2023, Lars Reed -- lars-at-kalars.net
+//
+//           Licensed under the Apache License, Version 2.0 (the "License");
+//           you may not use this file except in compliance with the License.
+//           You may obtain a copy of the License at
+//
+//           http://www.apache.org/licenses/LICENSE-2.0
+//
+//           Unless required by applicable law or agreed to in writing, software
+//           distributed under the License is distributed on an "AS IS" BASIS,
+//           WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//           See the License for the specific language governing permissions and
+//           limitations under the License.
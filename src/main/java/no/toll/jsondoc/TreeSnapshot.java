@@ -0,0 +1,195 @@
+package no.toll.jsondoc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/** cache=dir when parsing a schema file: keeps the parsed and finalized tree in a compact binary form,
+ *  keyed by the schema contents and the definitions, so that later runs skip parsing and Node.finalized().
+ *  Shares the directory (and its size limit) with ValidationCache. */
+final class TreeSnapshot {
+    static final String SUFFIX = ".tree";
+    private static final int VERSION = 1;
+    /** Definitions only used when running, not when parsing -- any other may be tested by xif-... */
+    private static final String[] NOT_PARSED = { Context.MODE, Context.FILES, Context.THREADS, Context.CACHE,
+            Context.CACHE_MAX_MB, Context.FAIL_FAST, Context.MAX_ERRORS, Context.MAX_LINE_ERRORS, Context.MMAP,
+            Context.NDJSON, Context.REPORT, Context.STATS, Context.STATS_FILE, Context.ENGINE, Context.OUT, Context.OUT_DIR,
+            Context.FORMATS, Context.WATCH, Context.PORT, Context.ROOT, JsonDocServer.SCHEMA_PARAM };
+
+    private final Path dir;
+    private final Context context;
+
+    private TreeSnapshot(final Path dir, final Context context) {
+        this.dir = dir;
+        this.context = context;
+    }
+
+    static Optional<TreeSnapshot> of(final Context context) {
+        return context.value(Context.CACHE).map(dir -> new TreeSnapshot(Path.of(dir), context));
+    }
+
+    /** Schema contents, and the definitions that may change the tree (like variant= and excludeColumns=). */
+    String key(final Path schemaFile) throws IOException {
+        return Hashes.sha256(Hashes.sha256(schemaFile) + '\n' + signature(context));
+    }
+
+    /** The definitions that may change the parsed tree. */
+    static String signature(final Context context) {
+        return context.isSchemaMode() + "\n" + context.signature(NOT_PARSED);
+    }
+
+    private Path entry(final String key) { return dir.resolve(key + SUFFIX); }
+
+    /** The stored tree for the file, or else the parsed one (which is then stored). */
+    Node load(final String fileName, final Supplier<Node> parser) {
+        final String key;
+        try { key = key(Path.of(fileName)); }
+        catch (final IOException e) { return parser.get(); } // let the parser report it
+        return lookup(key).orElseGet(() -> {
+            final var root = parser.get();
+            store(key, root);
+            ValidationCache.of(context).ifPresent(ValidationCache::evict);
+            return root;
+        });
+    }
+
+    Optional<Node> lookup(final String key) {
+        final var entry = entry(key);
+        if (!Files.isRegularFile(entry)) return Optional.empty();
+        try (final var in = new In(new DataInputStream(new BufferedInputStream(Files.newInputStream(entry))))) {
+            if (in.data.readInt() != VERSION || !key.equals(in.data.readUTF())) return Optional.empty();
+            final var root = Node.read(in, null, context).freeze();
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return Optional.of(root);
+        }
+        catch (final IOException | RuntimeException e) {
+            return Optional.empty(); // unreadable entries are just misses
+        }
+    }
+
+    void store(final String key, final Node root) {
+        Path tmp = null;
+        try {
+            Files.createDirectories(dir);
+            tmp = Files.createTempFile(dir, key, ValidationCache.TMP_SUFFIX);
+            try (final var out = new Out(new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp))))) {
+                out.data.writeInt(VERSION);
+                out.data.writeUTF(key);
+                root.write(out);
+            }
+            Files.move(tmp, entry(key), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (final IOException e) {
+            Logger.warn("Could not write to cache", dir, e); // the tree is still good
+        }
+        finally { ValidationCache.deleteTmp(tmp); }
+    }
+
+    /** Strings (mostly the same few names) are written once, and then referred to by number.
+     *  Numbers are variable length, most of them fit in a byte. */
+    static final class Out implements AutoCloseable {
+        final DataOutputStream data;
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        Out(final DataOutputStream data) { this.data = data; }
+
+        void string(final String s) throws IOException {
+            final var known = strings.get(s);
+            if (known != null) {
+                number(known + 1);
+                return;
+            }
+            strings.put(s, strings.size());
+            final var bytes = s.getBytes(StandardCharsets.UTF_8);
+            number(0);
+            number(bytes.length);
+            data.write(bytes);
+        }
+
+        /** Not negative. */
+        void number(final int n) throws IOException {
+            int rest = n;
+            while ((rest & ~0x7f) != 0) {
+                data.writeByte((rest & 0x7f) | 0x80);
+                rest >>>= 7;
+            }
+            data.writeByte(rest);
+        }
+
+        void value(final Object value) throws IOException {
+            switch (value) {
+                case final String s -> { data.writeByte('S'); string(s); }
+                case final Long l -> { data.writeByte('L'); data.writeLong(l); }
+                case final Double d -> { data.writeByte('D'); data.writeDouble(d); }
+                case final Boolean b -> { data.writeByte('B'); data.writeBoolean(b); }
+                default -> throw new IOException("Cannot store " + value.getClass());
+            }
+        }
+
+        @Override public void close() throws IOException { data.close(); }
+    }
+
+    static final class In implements AutoCloseable {
+        final DataInputStream data;
+        private final List<String> strings = new ArrayList<>();
+
+        In(final DataInputStream data) { this.data = data; }
+
+        String string() throws IOException {
+            final int index = number();
+            if (index > 0) return strings.get(index - 1);
+            final var s = new String(data.readNBytes(number()), StandardCharsets.UTF_8);
+            strings.add(s);
+            return s;
+        }
+
+        int number() throws IOException {
+            int n = 0;
+            for (int shift = 0; ; shift += 7) {
+                final int b = data.readUnsignedByte();
+                n |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) return n;
+            }
+        }
+
+        Object value() throws IOException {
+            final int tag = data.readByte();
+            return switch (tag) {
+                case 'S' -> string();
+                case 'L' -> data.readLong();
+                case 'D' -> data.readDouble();
+                case 'B' -> data.readBoolean();
+                default -> throw new IOException("Unknown value type " + tag);
+            };
+        }
+
+        @Override public void close() throws IOException { data.close(); }
+    }
+}
+
+//   Copyright 2021-2023, Lars Reed -- lars-at-kalars.net
+//
+//           Licensed under the Apache License, Version 2.0 (the "License");
+//           you may not use this file except in compliance with the License.
+//           You may obtain a copy of the License at
+//
+//           http://www.apache.org/licenses/LICENSE-2.0
+//
+//           Unless required by applicable law or agreed to in writing, software
+//           distributed under the License is distributed on an "AS IS" BASIS,
+//           WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//           See the License for the specific language governing permissions and
+//           limitations under the License.
@@ -0,0 +1,141 @@
+package no.toll.jsondoc;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+/** cache=dir: remembers validation results between runs, keyed by data file contents and clean schema.
+ *  One file per entry, written to a temporary name and moved into place, so concurrent writers are safe.
+ *  Entries are touched when used, and the least recently used are evicted when the cache grows too big. */
+class ValidationCache {
+    private static final int VERSION = 1;
+    private static final long DEFAULT_MAX_MB = 256;
+    private static final String SUFFIX = ".entry";
+    static final String TMP_SUFFIX = ".tmp";
+    /** Older temporary files are left from a writer that failed or was killed. */
+    private static final long STALE_TMP_MS = 60 * 60 * 1000L;
+
+    private final Path dir;
+    private final long maxBytes;
+
+    private ValidationCache(final Path dir, final long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    static Optional<ValidationCache> of(final Context context) {
+        return context.value(Context.CACHE).map(dir -> new ValidationCache(Path.of(dir),
+                context.value(Context.CACHE_MAX_MB).map(Long::parseLong).orElse(DEFAULT_MAX_MB) * 1024 * 1024));
+    }
+
+    /** The entry key: data contents, schema, and any settings changing how the file is validated. */
+    String key(final CompiledSchema schema, final Path dataFile, final String settings) throws IOException {
+        return Hashes.sha256(Hashes.sha256(dataFile) + '\n' + schema.hash() + '\n' + settings);
+    }
+
+    private Path entry(final String key) { return dir.resolve(key + SUFFIX); }
+
+    /** A stored result, attributed to the given file name. */
+    Optional<ValidationResult> lookup(final String key, final String dataFile) {
+        final var entry = entry(key);
+        if (!Files.isRegularFile(entry)) return Optional.empty();
+        try (final var in = new DataInputStream(Files.newInputStream(entry))) {
+            if (in.readInt() != VERSION || !key.equals(in.readUTF())) return Optional.empty();
+            final var result = new ValidationResult(dataFile);
+            if (!in.readBoolean()) result.fail();
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) result.add(new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8));
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return Optional.of(result);
+        }
+        catch (final IOException e) {
+            return Optional.empty(); // unreadable entries are just misses
+        }
+    }
+
+    void store(final String key, final ValidationResult result) {
+        Path tmp = null;
+        try {
+            Files.createDirectories(dir);
+            tmp = Files.createTempFile(dir, key, TMP_SUFFIX);
+            try (final var out = new DataOutputStream(Files.newOutputStream(tmp))) {
+                out.writeInt(VERSION);
+                out.writeUTF(key);
+                out.writeBoolean(result.isOk());
+                out.writeInt(result.messages().size());
+                for (final var msg : result.messages()) {
+                    final var bytes = msg.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            }
+            Files.move(tmp, entry(key), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (final IOException e) {
+            Logger.warn("Could not write to cache", dir, e); // the result is still good
+        }
+        finally { deleteTmp(tmp); }
+    }
+
+    /** Remove what is left of a failed write (nothing after a successful move). */
+    static void deleteTmp(final Path tmp) {
+        if (tmp == null) return;
+        try { Files.deleteIfExists(tmp); }
+        catch (final IOException e) { Logger.warn("Could not delete", tmp, e); }
+    }
+
+    /** Delete stale temporary files, and then the least recently used entries (and tree snapshots)
+     *  until the cache is within its size limit. */
+    void evict() {
+        if (!Files.isDirectory(dir)) return;
+        record Entry(Path path, long size, FileTime used) {}
+        final List<Entry> entries = new ArrayList<>();
+        final long staleBefore = System.currentTimeMillis() - STALE_TMP_MS;
+        try (final var files = Files.list(dir)) {
+            for (final var path : files.toList()) {
+                final var name = path.toString();
+                try {
+                    if (name.endsWith(TMP_SUFFIX)) {
+                        if (Files.getLastModifiedTime(path).toMillis() < staleBefore) Files.deleteIfExists(path);
+                    }
+                    else if (name.endsWith(SUFFIX) || name.endsWith(TreeSnapshot.SUFFIX))
+                        entries.add(new Entry(path, Files.size(path), Files.getLastModifiedTime(path)));
+                }
+                catch (final IOException ignored) { /* removed by someone else */ }
+            }
+            long total = entries.stream().mapToLong(Entry::size).sum();
+            entries.sort(Comparator.comparing(Entry::used));
+            for (final var e : entries) {
+                if (total <= maxBytes) break;
+                Files.deleteIfExists(e.path());
+                total -= e.size();
+            }
+        }
+        catch (final IOException e) {
+            Logger.warn("Could not clean up cache", dir, e);
+        }
+    }
+}
+
+//   Copyright 2021-2023, Lars Reed -- lars-at-kalars.net
+//
+//           Licensed under the Apache License, Version 2.0 (the "License");
+//           you may not use this file except in compliance with the License.
+//           You may obtain a copy of the License at
+//
+//           http://www.apache.org/licenses/LICENSE-2.0
+//
+//           Unless required by applicable law or agreed to in writing, software
+//           distributed under the License is distributed on an "AS IS" BASIS,
+//           WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//           See the License for the specific language governing permissions and
+//           limitations under the License.
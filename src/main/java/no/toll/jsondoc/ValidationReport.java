@@ -0,0 +1,217 @@
+package no.toll.jsondoc;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.MinimalPrettyPrinter;
+import org.apache.commons.text.StringEscapeUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Set;
+
+/** report=: writes the result of each file as soon as it is done, so that nothing but the
+ *  counters has to be kept until the end of the run. */
+abstract class ValidationReport {
+    static final Set<String> TYPES = Set.of("text", "json", "junit");
+    protected final Writer out;
+    private int files = 0;
+    private int failures = 0;
+
+    protected ValidationReport(final Writer out) { this.out = out; }
+
+    /** The report named by report=, or null for the default (collected) output. */
+    static ValidationReport of(final Context context, final Writer out) {
+        final var type = context.value(Context.REPORT);
+        if (type.isEmpty()) return null;
+        return switch (type.get().toLowerCase()) {
+            case "text" -> new TextReport(out);
+            case "json" -> new JsonReport(out);
+            case "junit" -> new JUnitReport(out);
+            default -> throw new IllegalArgumentException("Unknown " + Context.REPORT + "=" + type.get());
+        };
+    }
+
+    void start(final String schemaFile) { run(() -> begin(schemaFile)); }
+
+    void file(final ValidationResult result) {
+        files++;
+        if (!result.isOk()) failures++;
+        run(() -> {
+            write(result);
+            out.flush();
+        });
+    }
+
+    /** Called once, with the run level messages (no files found, stopped early...). */
+    void finish(final ValidationResult summary) {
+        run(() -> {
+            end(summary);
+            out.flush();
+        });
+    }
+
+    int files() { return files; }
+    int failures() { return failures; }
+
+    protected abstract void begin(String schemaFile) throws IOException;
+    protected abstract void write(ValidationResult result) throws IOException;
+    protected abstract void end(ValidationResult summary) throws IOException;
+
+    private interface IOAction { void run() throws IOException; }
+
+    private static void run(final IOAction action) {
+        try { action.run(); }
+        catch (final IOException e) { throw new UncheckedIOException(e); }
+    }
+}
+
+/** Same layout as the default output, but only files with messages are listed. */
+class TextReport extends ValidationReport {
+    TextReport(final Writer out) { super(out); }
+
+    @Override protected void begin(final String schemaFile) {}
+
+    @Override
+    protected void write(final ValidationResult result) throws IOException {
+        if (result.messages().isEmpty()) return;
+        out.write(result.file() + ":\n");
+        for (final var msg : result.messages()) out.write("  " + msg + "\n");
+    }
+
+    @Override
+    protected void end(final ValidationResult summary) throws IOException {
+        write(summary);
+        if (summary.isOk()) out.write("ok\n");
+        else out.write("failed: " + failures() + " of " + files() + " files\n");
+    }
+}
+
+/** {"schema": ..., "files": [{"file": ..., "ok": ..., "messages": [...]}, ...], "ok": ..., "messages": [...]} */
+class JsonReport extends ValidationReport {
+    private final JsonGenerator json;
+
+    JsonReport(final Writer out) {
+        super(out);
+        try {
+            json = new JsonFactory().createGenerator(out)
+                    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                    .setPrettyPrinter(new FilePerLine());
+        }
+        catch (final IOException e) { throw new UncheckedIOException(e); }
+    }
+
+    @Override
+    protected void begin(final String schemaFile) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("schema", schemaFile);
+        json.writeArrayFieldStart("files");
+    }
+
+    @Override
+    protected void write(final ValidationResult result) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("file", result.file());
+        json.writeBooleanField("ok", result.isOk());
+        messages(result);
+        json.writeEndObject();
+        json.flush();
+    }
+
+    @Override
+    protected void end(final ValidationResult summary) throws IOException {
+        json.writeEndArray();
+        json.writeBooleanField("ok", summary.isOk());
+        json.writeNumberField("fileCount", files());
+        json.writeNumberField("failures", failures());
+        messages(summary);
+        json.writeEndObject();
+        json.writeRaw('\n');
+        json.flush();
+    }
+
+    private void messages(final ValidationResult result) throws IOException {
+        json.writeArrayFieldStart("messages");
+        for (final var msg : result.messages()) json.writeString(msg);
+        json.writeEndArray();
+    }
+
+    /** Compact, but each element of "files" on a line of its own. */
+    private static final class FilePerLine extends MinimalPrettyPrinter {
+        private static final long serialVersionUID = 1L;
+
+        FilePerLine() { super("\n"); }
+
+        @Override
+        public void beforeArrayValues(final JsonGenerator g) throws IOException {
+            if (isFiles(g)) g.writeRaw('\n');
+        }
+
+        @Override
+        public void writeArrayValueSeparator(final JsonGenerator g) throws IOException {
+            super.writeArrayValueSeparator(g);
+            if (isFiles(g)) g.writeRaw('\n');
+        }
+
+        @Override
+        public void writeEndArray(final JsonGenerator g, final int nrOfValues) throws IOException {
+            if (nrOfValues > 0 && isFiles(g)) g.writeRaw('\n');
+            super.writeEndArray(g, nrOfValues);
+        }
+
+        private static boolean isFiles(final JsonGenerator g) {
+            final var parent = g.getOutputContext().getParent();
+            return parent != null && parent.getParent() != null && parent.getParent().inRoot()
+                    && "files".equals(parent.getCurrentName());
+        }
+    }
+}
+
+/** One test case per file. The counts are not known until the end, so the suite element carries none;
+ *  the run level messages go to system-err. */
+class JUnitReport extends ValidationReport {
+    JUnitReport(final Writer out) { super(out); }
+
+    @Override
+    protected void begin(final String schemaFile) throws IOException {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.write("<testsuite name=\"" + xml(schemaFile) + "\">\n");
+    }
+
+    @Override
+    protected void write(final ValidationResult result) throws IOException {
+        out.write("  <testcase classname=\"VALIDATE\" name=\"" + xml(result.file()) + "\"");
+        if (result.isOk() && result.messages().isEmpty()) {
+            out.write("/>\n");
+            return;
+        }
+        out.write(">\n");
+        final var text = xml(String.join("\n", result.messages()));
+        if (result.isOk()) out.write("    <system-out>" + text + "</system-out>\n");
+        else out.write("    <failure message=\"" + result.messages().size() + " messages\">" + text + "</failure>\n");
+        out.write("  </testcase>\n");
+    }
+
+    @Override
+    protected void end(final ValidationResult summary) throws IOException {
+        if (!summary.messages().isEmpty())
+            out.write("  <system-err>" + xml(String.join("\n", summary.messages())) + "</system-err>\n");
+        out.write("</testsuite>\n");
+    }
+
+    private static String xml(final String s) { return StringEscapeUtils.escapeXml11(s); }
+}
+
+//   Copyright 2021-2023, Lars Reed -- lars-at-kalars.net
+//
+//           Licensed under the Apache License, Version 2.0 (the "License");
+//           you may not use this file except in compliance with the License.
+//           You may obtain a copy of the License at
+//
+//           http://www.apache.org/licenses/LICENSE-2.0
+//
+//           Unless required by applicable law or agreed to in writing, software
+//           distributed under the License is distributed on an "AS IS" BASIS,
+//           WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//           See the License for the specific language governing permissions and
+//           limitations under the License.
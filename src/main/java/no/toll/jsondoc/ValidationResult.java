@@ -0,0 +1,80 @@
+package no.toll.jsondoc;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/** Messages from validating one file, or several merged together. Read only outside this package. */
+public final class ValidationResult {
+    private boolean ok = true;
+    private final Map<String, List<String>> messages = new LinkedHashMap<>();
+    private final String thisFile;
+    private int size = 0;
+    private FileStats stats = null; // with stats=
+
+    ValidationResult(final String file) { thisFile = file; }
+    ValidationResult fail() { ok = false; return this; }
+    public boolean isOk() { return ok; }
+
+    /** Number of messages. */ public int size() { return size; }
+    /** The file validated, or another name for the input. */ public String file() { return thisFile; }
+    FileStats stats() { return stats; }
+    ValidationResult stats(final FileStats stats) { this.stats = stats; return this; }
+    /** Messages for this result's own file. */
+    public List<String> messages() {
+        return Collections.unmodifiableList(messages.getOrDefault(thisFile, List.of()));
+    }
+    /** All messages, by file, in the order validated. */
+    public Map<String, List<String>> byFile() { return Collections.unmodifiableMap(messages); }
+
+    /** Merge in the result of another file. */
+    ValidationResult addAll(final ValidationResult other) { return addAll(other, 0); }
+
+    /** Merge in the result of another file, but keep no more than max messages in total (0: no limit). */
+    ValidationResult addAll(final ValidationResult other, final int max) {
+        if (!other.ok) ok = false;
+        other.messages.forEach((file, list) -> {
+            for (final var msg : list) {
+                if (max > 0 && size >= max) return;
+                messages.computeIfAbsent(file, k -> new LinkedList<>()).add(msg);
+                size++;
+            }
+        });
+        return this;
+    }
+
+    ValidationResult add(final String err) {
+        messages.putIfAbsent(thisFile, new LinkedList<>());
+        messages.get(thisFile).add(err);
+        size++;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder buf = new StringBuilder();
+        if (isOk()) buf.append("ok\n");
+        messages.keySet().forEach(k -> {
+            buf.append(k).append(":\n");
+            final var strings = messages.get(k);
+            strings.forEach(s -> buf.append("  ").append(s).append('\n'));
+        });
+        return buf.toString();
+    }
+}
+
+//   Copyright 2021-2023, Lars Reed -- lars-at-kalars.net
+//
+//           Licensed under the Apache License, Version 2.0 (the "License");
+//           you may not use this file except in compliance with the License.
+//           You may obtain a copy of the License at
+//
+//           http://www.apache.org/licenses/LICENSE-2.0
+//
+//           Unless required by applicable law or agreed to in writing, software
+//           distributed under the License is distributed on an "AS IS" BASIS,
+//           WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//           See the License for the specific language governing permissions and
+//           limitations under the License.
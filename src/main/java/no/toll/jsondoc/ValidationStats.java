@@ -0,0 +1,142 @@
+package no.toll.jsondoc;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/** Timing of a single file: reading it, and validating what was read.
+ *  For JSON Lines, mmap= and engine=native the two are interleaved, and everything counts as validation. */
+record FileStats(String file, long bytes, long readNanos, long validateNanos, int messages) {
+    long nanos() { return readNanos + validateNanos; }
+}
+
+/** stats=/statsFile=: collects FileStats for a run, and summarizes throughput and latency at the end.
+ *  Not thread safe -- results are recorded by the thread consuming them, in input order. */
+class ValidationStats {
+    static final int SLOWEST = 10;
+    private static final double NANOS_PER_SEC = 1e9;
+    private static final double BYTES_PER_MB = 1 << 20;
+
+    private final long start = System.nanoTime();
+    private long elapsed = 0;
+    private long[] latencies = new long[256];
+    private int files = 0;
+    private long bytes = 0;
+    private long readNanos = 0;
+    private long validateNanos = 0;
+    private long messages = 0;
+    private final PriorityQueue<FileStats> slowest = new PriorityQueue<>(Comparator.comparingLong(FileStats::nanos));
+
+    static boolean enabled(final Context context) {
+        return context.value(Context.STATS).map(Boolean::parseBoolean).orElse(false)
+                || context.contains(Context.STATS_FILE);
+    }
+
+    void record(final FileStats file) {
+        if (files == latencies.length) latencies = Arrays.copyOf(latencies, files * 2);
+        latencies[files++] = file.nanos();
+        bytes += file.bytes();
+        readNanos += file.readNanos();
+        validateNanos += file.validateNanos();
+        messages += file.messages();
+        slowest.add(file);
+        if (slowest.size() > SLOWEST) slowest.poll();
+    }
+
+    /** Stop the clock, and write the summary as requested by the context. */
+    void finish(final Context context) {
+        elapsed = System.nanoTime() - start;
+        if (context.value(Context.STATS).map(Boolean::parseBoolean).orElse(false)) System.err.print(summary());
+        final var statsFile = context.value(Context.STATS_FILE);
+        if (statsFile.isEmpty()) return;
+        try (final var out = Files.newBufferedWriter(Path.of(statsFile.get()))) { writeJson(out); }
+        catch (final IOException e) { throw new UncheckedIOException(e); }
+    }
+
+    int files() { return files; }
+    double filesPerSec() { return elapsed == 0 ? 0 : files * NANOS_PER_SEC / elapsed; }
+    double mbPerSec() { return elapsed == 0 ? 0 : bytes / BYTES_PER_MB * NANOS_PER_SEC / elapsed; }
+
+    /** Per file latency (read + validate) at the given percentile, in nanoseconds. */
+    long percentile(final int pct) {
+        if (files == 0) return 0;
+        final var sorted = Arrays.copyOf(latencies, files);
+        Arrays.sort(sorted);
+        return sorted[Math.min(files - 1, (int) ((long) files * pct / 100))];
+    }
+
+    /** Slowest first. */
+    List<FileStats> slowest() {
+        final List<FileStats> list = new ArrayList<>(slowest);
+        list.sort(Comparator.comparingLong(FileStats::nanos).reversed());
+        return list;
+    }
+
+    String summary() {
+        final var buf = new StringBuilder();
+        buf.append(String.format("%d files, %.1f MB in %d ms: %.1f files/s, %.2f MB/s%n",
+                files, bytes / BYTES_PER_MB, elapsed / 1_000_000, filesPerSec(), mbPerSec()));
+        buf.append(String.format("read %d ms, validate %d ms, %d messages%n",
+                readNanos / 1_000_000, validateNanos / 1_000_000, messages));
+        buf.append(String.format("latency p50 %d us, p95 %d us, p99 %d us%n",
+                percentile(50) / 1_000, percentile(95) / 1_000, percentile(99) / 1_000));
+        buf.append("slowest:\n");
+        for (final var file : slowest())
+            buf.append(String.format("  %8d us  %s%n", file.nanos() / 1_000, file.file()));
+        return buf.toString();
+    }
+
+    void writeJson(final Writer out) throws IOException {
+        try (final JsonGenerator json = new JsonFactory().createGenerator(out)) {
+            json.useDefaultPrettyPrinter();
+            json.writeStartObject();
+            json.writeNumberField("files", files);
+            json.writeNumberField("bytes", bytes);
+            json.writeNumberField("elapsedMs", elapsed / 1_000_000);
+            json.writeNumberField("readMs", readNanos / 1_000_000);
+            json.writeNumberField("validateMs", validateNanos / 1_000_000);
+            json.writeNumberField("messages", messages);
+            json.writeNumberField("filesPerSec", filesPerSec());
+            json.writeNumberField("mbPerSec", mbPerSec());
+            json.writeNumberField("p50Us", percentile(50) / 1_000);
+            json.writeNumberField("p95Us", percentile(95) / 1_000);
+            json.writeNumberField("p99Us", percentile(99) / 1_000);
+            json.writeArrayFieldStart("slowest");
+            for (final var file : slowest()) {
+                json.writeStartObject();
+                json.writeStringField("file", file.file());
+                json.writeNumberField("bytes", file.bytes());
+                json.writeNumberField("readUs", file.readNanos() / 1_000);
+                json.writeNumberField("validateUs", file.validateNanos() / 1_000);
+                json.writeNumberField("messages", file.messages());
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+        }
+    }
+}
+
+//   Copyright 2021-2023, Lars Reed -- lars-at-kalars.net
+//
+//           Licensed under the Apache License, Version 2.0 (the "License");
+//           you may not use this file except in compliance with the License.
+//           You may obtain a copy of the License at
+//
+//           http://www.apache.org/licenses/LICENSE-2.0
+//
+//           Unless required by applicable law or agreed to in writing, software
+//           distributed under the License is distributed on an "AS IS" BASIS,
+//           WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//           See the License for the specific language governing permissions and
+//           limitations under the License.
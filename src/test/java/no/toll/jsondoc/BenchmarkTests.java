@@ -0,0 +1,414 @@
+package no.toll.jsondoc;
+
+import net.jimblackler.jsonschemafriend.GenerationException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/** Timing runs, not part of the normal build -- run with  mvn test -Dtest=BenchmarkTests -Dbenchmark=true
+ *  (add -Dbenchmark.large=true to include the slowest cases). */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class BenchmarkTests {
+
+    private static final String SCHEMA = """
+                {
+                  "$schema": "https://json-schema.org/draft/2020-12/schema",
+                  "type": "object",
+                  "properties": {
+                    "foo": {
+                      "type": "string",
+                      "pattern": "^[a-z]+$"
+                    },
+                    "bar": {
+                      "type": "integer",
+                      "minimum": 0
+                    }
+                  },
+                  "required": [
+                    "foo"
+                  ]
+                }""";
+
+    private static String dataFiles(final int count) {
+        final List<String> files = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            files.add(TestFiles.makeTempSchema("{ \"foo\": \"abc\", \"bar\": " + i + " }"));
+        return String.join(",", files);
+    }
+
+    private static long time(final Runnable r) {
+        final long start = System.nanoTime();
+        r.run();
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    void validation_perFileCost() {
+        final var schemaFile = TestFiles.makeTempSchema(SCHEMA);
+        GeneralJSONValidator.validate(schemaFile, new Context("VALIDATE").add(Context.FILES, dataFiles(5))); // warmup
+        System.out.println("files   total ms   us/file");
+        for (final int count : new int[] { 10, 100, 1_000, 10_000 }) {
+            final var context = new Context("VALIDATE").add(Context.FILES, dataFiles(count));
+            final long nanos = time(() -> GeneralJSONValidator.validate(schemaFile, context));
+            System.out.printf("%6d %10d %9d%n", count, nanos / 1_000_000, nanos / 1_000 / count);
+        }
+    }
+
+    private static long percentile(final long[] sorted, final int pct) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * pct / 100)];
+    }
+
+    @Test
+    void server_load() throws Exception {
+        final var server = new JsonDocServer(TestFiles.makeTempSchema(ServerTests.SCHEMA),
+                new Context("SERVE").add(Context.PORT, "0"));
+        final var base = "http://localhost:" + server.start() + "/";
+        try {
+            for (int i = 0; i < 200; i++) ServerTests.get(base + "html"); // warmup
+            for (final var path : new String[] { "html", "markdown", "schema" }) {
+                final int clients = 32;
+                final int perClient = 100;
+                final long[] latencies = new long[clients * perClient];
+                final long start = System.nanoTime();
+                try (final var pool = Executors.newVirtualThreadPerTaskExecutor()) {
+                    for (int c = 0; c < clients; c++) {
+                        final int client = c;
+                        pool.submit(() -> {
+                            for (int i = 0; i < perClient; i++) {
+                                final long t0 = System.nanoTime();
+                                ServerTests.get(base + path);
+                                latencies[client * perClient + i] = System.nanoTime() - t0;
+                            }
+                            return null;
+                        });
+                    }
+                }
+                final long total = System.nanoTime() - start;
+                Arrays.sort(latencies);
+                System.out.printf("/%-9s %6d req/s  p50 %5d us  p95 %5d us  p99 %5d us%n", path,
+                        latencies.length * 1_000_000_000L / total, percentile(latencies, 50) / 1_000,
+                        percentile(latencies, 95) / 1_000, percentile(latencies, 99) / 1_000);
+            }
+        }
+        finally { server.stop(); }
+    }
+
+    /** A data file of roughly the given size, valid according to SCHEMA. */
+    private static Path bigDataFile(final long bytes) throws IOException {
+        final Path file = Files.createTempFile("jbig", ".json");
+        file.toFile().deleteOnExit();
+        final var row = "{ \"id\": 123456789, \"text\": \"lorem ipsum dolor sit amet\" }";
+        try (final var out = Files.newBufferedWriter(file)) {
+            out.write("{ \"foo\": \"abc\", \"bar\": 1, \"rows\": [\n");
+            for (long written = 0; written < bytes; written += row.length() + 2) out.write(row + ",\n");
+            out.write(row + "\n] }\n");
+        }
+        return file;
+    }
+
+    private static long peakHeap() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .mapToLong(pool -> pool.getPeakUsage().getUsed())
+                .sum();
+    }
+
+    @Test
+    void validation_mmapVersusString() throws IOException {
+        final var schemaFile = TestFiles.makeTempSchema(SCHEMA);
+        final List<Long> sizes = new ArrayList<>(List.of(10L << 20, 100L << 20));
+        if (Boolean.getBoolean("benchmark.large")) sizes.add(1L << 30);
+        System.out.println("size MB  mode      ms    MB/s   peak heap MB");
+        for (final long size : sizes) {
+            final var file = bigDataFile(size);
+            for (final var mmap : new String[] { "false", "true" }) {
+                final var context = new Context("VALIDATE").add(Context.FILES, file.toString()).add(Context.MMAP, mmap);
+                System.gc();
+                ManagementFactory.getMemoryPoolMXBeans().forEach(MemoryPoolMXBean::resetPeakUsage);
+                final long nanos = time(() -> GeneralJSONValidator.validate(schemaFile, context));
+                System.out.printf("%7d  %-6s %7d %7d %14d%n", size >> 20, "true".equals(mmap) ? "mmap" : "string",
+                        nanos / 1_000_000, (size >> 20) * 1_000_000_000L / nanos, peakHeap() >> 20);
+            }
+            Files.delete(file);
+        }
+    }
+
+    private static final String ORDER_SCHEMA = """
+                {
+                  "$schema": "https://json-schema.org/draft/2020-12/schema",
+                  "type": "object",
+                  "properties": {
+                    "id": { "type": "string", "pattern": "^[A-Z]{3}-[0-9]+$" },
+                    "status": { "enum": [ "new", "paid", "shipped", "cancelled" ] },
+                    "lines": { "type": "array", "minItems": 1, "items": { "$ref": "#/$defs/line" } }
+                  },
+                  "required": [ "id", "status", "lines" ],
+                  "additionalProperties": false,
+                  "$defs": {
+                    "line": {
+                      "type": "object",
+                      "properties": {
+                        "sku": { "type": "string", "minLength": 4, "maxLength": 12 },
+                        "qty": { "type": "integer", "minimum": 1 },
+                        "price": { "type": "number", "exclusiveMinimum": 0 }
+                      },
+                      "required": [ "sku", "qty" ]
+                    }
+                  }
+                }""";
+
+    private static String order(final int n) {
+        final var lines = new ArrayList<String>();
+        for (int i = 0; i < 20; i++)
+            lines.add("{ \"sku\": \"SKU" + i + "\", \"qty\": " + (i + 1) + ", \"price\": " + (i + 0.5) + " }");
+        return "{ \"id\": \"ORD-" + n + "\", \"status\": \"paid\", \"lines\": [ " + String.join(", ", lines) + " ] }";
+    }
+
+    /** Schema file -> data files: each subdirectory of -Dbenchmark.corpus=dir with a schema.json
+     *  (all other files in it are data), or else generated samples. */
+    private static Map<String, List<String>> corpus() throws IOException {
+        final Map<String, List<String>> corpus = new LinkedHashMap<>();
+        final var dir = System.getProperty("benchmark.corpus");
+        if (dir != null) {
+            try (final var subdirs = Files.list(Path.of(dir))) {
+                for (final var sub : subdirs.filter(Files::isDirectory).toList()) {
+                    final var schema = sub.resolve("schema.json");
+                    if (!Files.exists(schema)) continue;
+                    try (final var files = Files.list(sub)) {
+                        corpus.put(schema.toString(), files.filter(f -> !f.equals(schema)).map(Path::toString).toList());
+                    }
+                }
+            }
+            return corpus;
+        }
+        corpus.put(TestFiles.makeTempSchema(SCHEMA), Arrays.asList(dataFiles(1_000).split(",")));
+        final List<String> orders = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) orders.add(TestFiles.makeTempSchema(order(i)));
+        corpus.put(TestFiles.makeTempSchema(ORDER_SCHEMA), orders);
+        return corpus;
+    }
+
+    /** Best of 5 rounds over all documents, in ms. */
+    private static long validateAll(final GeneralJSONValidator validator, final CompiledSchema schema,
+                                    final List<String> documents) {
+        final Runnable round = () -> documents.forEach(d -> validator.validateString(schema, d));
+        for (int i = 0; i < 3; i++) round.run(); // warmup
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) best = Math.min(best, time(round));
+        return best / 1_000_000;
+    }
+
+    @Test
+    void validation_engines() throws IOException, GenerationException {
+        System.out.println("schema                               docs  default ms  native ms");
+        for (final var entry : corpus().entrySet()) {
+            final List<String> documents = new ArrayList<>();
+            for (final var file : entry.getValue()) documents.add(Files.readString(Path.of(file)));
+            final var friendContext = new Context("VALIDATE");
+            final var nativeContext = new Context("VALIDATE").add(Context.ENGINE, StreamingValidator.ENGINE);
+            final long friend = validateAll(new GeneralJSONValidator(friendContext),
+                    GeneralJSONValidator.compile(entry.getKey(), friendContext), documents);
+            final long nativeMs = validateAll(new GeneralJSONValidator(nativeContext),
+                    GeneralJSONValidator.compile(entry.getKey(), nativeContext), documents);
+            System.out.printf("%-36s %5d %11d %10d%n", Path.of(entry.getKey()).getFileName(),
+                    documents.size(), friend, nativeMs);
+        }
+    }
+
+    /** A documentation schema with the given number of properties, in groups of 10 with some extensions. */
+    private static String bigSchema(final int properties) {
+        final List<String> groups = new ArrayList<>();
+        for (int g = 0; g < properties / 10; g++) {
+            final List<String> props = new ArrayList<>();
+            for (int p = 0; p < 10; p++)
+                props.add("\"p" + p + "\": { \"type\": \"string\", \"maxLength\": " + (p + 10)
+                        + ", \"description\": \"Property " + p + " of group " + g + "\", \"x-note\": \"n" + p + "\" }");
+            groups.add("\"g" + g + "\": { \"type\": \"object\", \"description\": \"Group " + g
+                    + "\", \"properties\": { " + String.join(", ", props) + " }, \"required\": [ \"p0\" ] }");
+        }
+        return "{ \"title\": \"Big\", \"type\": \"object\", \"properties\": { " + String.join(", ", groups) + " } }";
+    }
+
+    /** Best of 5, after 3 warmup rounds, in microseconds. */
+    private static long best(final Runnable r) {
+        for (int i = 0; i < 3; i++) r.run();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) best = Math.min(best, time(r));
+        return best / 1_000;
+    }
+
+    @Test
+    void snapshot_versusParse() throws IOException {
+        final var cacheDir = Files.createTempDirectory("jsnap");
+        System.out.println("properties  schema KB  snapshot KB   parse ms    load ms");
+        for (final int count : new int[] { 1_000, 10_000, 50_000 }) {
+            final var schemaFile = TestFiles.makeTempSchema(bigSchema(count));
+            final var plain = new Context("HTML");
+            final var cached = new Context("HTML").add(Context.CACHE, cacheDir.toString());
+            new JsonDocParser(cached).parseFile(schemaFile); // stores the snapshot
+            final long parse = best(() -> new JsonDocParser(plain).parseFile(schemaFile));
+            final long load = best(() -> new JsonDocParser(cached).parseFile(schemaFile));
+            final var snapshot = cacheDir.resolve(TreeSnapshot.of(cached).get().key(Path.of(schemaFile)) + TreeSnapshot.SUFFIX);
+            System.out.printf("%10d %10d %12d %10.1f %10.1f%n", count, Files.size(Path.of(schemaFile)) >> 10,
+                    Files.size(snapshot) >> 10, parse / 1_000.0, load / 1_000.0);
+        }
+    }
+
+    /** Each property in one of the given number of variants, with a nested table. */
+    private static String variantSchema(final int properties, final int variants) {
+        final var buf = new StringBuilder("{ \"type\": \"object\", \"properties\": {\n");
+        for (int i = 0; i < properties; i++) {
+            if (i > 0) buf.append(",\n");
+            buf.append(String.format("""
+                    "p%d": { "xif-variant": "v%d", "type": "object", "ignore-note": "n",
+                             "properties": { "q": { "type": "string", "description": "d", "x-internal": "i" },
+                                             "r": { "type": "integer", "minimum": 0 } } }""", i, i % variants));
+        }
+        return buf.append("\n} }").toString();
+    }
+
+    private static int nodes(final Node node) {
+        return 1 + node.children.stream().mapToInt(BenchmarkTests::nodes).sum();
+    }
+
+    @Test
+    void parse_pruningVariants() {
+        final var schema = variantSchema(20_000, 10);
+        final var all = new Context("HTML");
+        final var one = new Context("HTML").add("variant", "v3").add(Context.EXCLUDE_COLUMNS, "x-internal");
+        System.out.println("definitions        nodes   parse ms");
+        for (final var context : List.of(all, one)) {
+            final long parse = best(() -> new JsonDocParser(context).parseString(schema));
+            System.out.printf("%-12s %12d %10.1f%n", context == all ? "none" : "variant=v3",
+                    nodes(new JsonDocParser(context).parseString(schema)), parse / 1_000.0);
+        }
+    }
+
+    /** Chains of nested objects, each level with a few properties. */
+    private static String deepSchema(final int depth, final int chains) {
+        final List<String> roots = new ArrayList<>();
+        for (int c = 0; c < chains; c++) {
+            var level = "{ \"type\": \"string\" }";
+            for (int d = depth; d > 0; d--)
+                level = String.format("""
+                        { "type": "object", "description": "level %d", "properties": {
+                            "a": { "type": "string" }, "b": { "type": "integer" }, "c": { "type": "boolean" },
+                            "level %d": %s } }""", d, d, level);
+            roots.add("\"chain" + c + "\": " + level);
+        }
+        return "{ \"title\": \"Deep\", \"type\": \"object\", \"properties\": { "
+                + String.join(", ", roots) + " } }";
+    }
+
+    @Test
+    void render_deepSchema() {
+        final var schema = deepSchema(40, 50);
+        final var context = new Context("HTML");
+        final var root = new JsonDocParser(context).parseString(schema);
+        System.out.println("format      render ms");
+        for (final var format : List.of("HTML", "WIKI", "MARKDOWN", "GRAPH")) {
+            final var formatContext = new Context(format);
+            final var tree = new JsonDocParser(formatContext).parseString(schema);
+            final long render = best(() -> JsonDoc.print(format, tree, formatContext));
+            System.out.printf("%-10s %10.1f%n", format, render / 1_000.0);
+        }
+        System.out.printf("%d tables, deepest at level %d%n", tables(root), maxLevel(root));
+    }
+
+    private static int tables(final Node node) {
+        return (node.isTable() ? 1 : 0) + node.children.stream().mapToInt(BenchmarkTests::tables).sum();
+    }
+
+    private static int maxLevel(final Node node) {
+        return node.children.stream().mapToInt(BenchmarkTests::maxLevel).max().orElse(node.level());
+    }
+
+    /** One $defs table with the given number of properties, every other one required. */
+    private static String wideSchema(final int properties) {
+        final List<String> props = new ArrayList<>();
+        final List<String> required = new ArrayList<>();
+        for (int p = 0; p < properties; p++) {
+            props.add("\"p" + p + "\": { \"type\": \"string\", \"maxLength\": " + (p % 50 + 1)
+                    + ", \"description\": \"Property " + p + "\", \"x-note\": \"n" + p + "\" }");
+            if (p % 2 == 0) required.add("\"p" + p + "\"");
+        }
+        return "{ \"title\": \"Wide\", \"type\": \"object\", \"$defs\": { \"wide\": { \"type\": \"object\", "
+                + "\"properties\": { " + String.join(", ", props) + " }, \"required\": [ "
+                + String.join(", ", required) + " ] } } }";
+    }
+
+    @Test
+    void render_wideDefs() {
+        final var schema = wideSchema(5_000);
+        System.out.println("format      parse ms  render ms");
+        for (final var format : List.of("HTML", "WIKI", "MARKDOWN", "GRAPH", "SAMPLE")) {
+            final var context = new Context(format);
+            final long parse = best(() -> new JsonDocParser(context).parseString(schema));
+            final var tree = new JsonDocParser(context).parseString(schema);
+            final long render = best(() -> JsonDoc.print(format, tree, context));
+            System.out.printf("%-10s %9.1f %10.1f%n", format, parse / 1_000.0, render / 1_000.0);
+        }
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) System.gc();
+        final var runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Test
+    void tree_heapUsage() throws IOException {
+        final var cacheDir = Files.createTempDirectory("jsnap");
+        System.out.println("properties  schema MB    tree MB  loaded MB   nodes");
+        for (final int count : new int[] { 10_000, 100_000 }) {
+            final var schemaFile = TestFiles.makeTempSchema(bigSchema(count));
+            final var context = new Context("HTML").add(Context.CACHE, cacheDir.toString());
+            new JsonDocParser(context).parseFile(schemaFile); // stores the snapshot
+            final long before = usedHeap();
+            final var parsed = new JsonDocParser(new Context("HTML")).parseString(Files.readString(Path.of(schemaFile)));
+            final long tree = usedHeap() - before;
+            final var loaded = new JsonDocParser(context).parseFile(schemaFile);
+            final long both = usedHeap() - before;
+            System.out.printf("%10d %10.1f %10.1f %10.1f %7d%n", count, Files.size(Path.of(schemaFile)) / 1e6,
+                    tree / 1e6, (both - tree) / 1e6, nodes(parsed));
+        }
+    }
+
+    private static long allocated() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    @Test
+    void print_stringVersusStream() throws IOException {
+        final var context = new Context("HTML");
+        final var root = new JsonDocParser(context).parseString(wideSchema(100_000));
+        final var file = Files.createTempFile("jprint", ".html");
+        file.toFile().deleteOnExit();
+        System.out.println("output      MB      ms   allocated MB");
+        for (int round = 0; round < 2; round++) // the first is warmup
+            for (final var stream : new boolean[] { false, true }) {
+                final long before = allocated();
+                final long nanos = time(() -> {
+                    try {
+                        if (stream) JsonDoc.print("HTML", root, context, file);
+                        else Files.writeString(file, JsonDoc.print("HTML", root, context) + System.lineSeparator());
+                    }
+                    catch (final IOException e) { throw new RuntimeException(e); }
+                });
+                if (round > 0) System.out.printf("%-8s %5d %7d %14d%n", stream ? "stream" : "string",
+                        Files.size(file) >> 20, nanos / 1_000_000, (allocated() - before) >> 20);
+            }
+    }
+}
@@ -2,13 +2,12 @@ package no.toll.jsondoc;
 
 import org.junit.jupiter.api.Test;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class ExtensionTests {
 
-    // TODO test skipTables
-
     private Context ctx(final String mode) {
         return new Context(mode)
                 .add("test", "true")
@@ -251,4 +250,121 @@ class ExtensionTests {
         final var res = new SchemaPrinter(new JsonDocParser(context).parseString(data)).create();
         assertTrue(res.matches("(?s).*" + JsonDocNames.ADDITIONAL_ITEMS + ".: false.*"), res);
     }
-}
\ No newline at end of file
+
+    private static int count(final Node node) {
+        return 1 + node.children.stream().mapToInt(ExtensionTests::count).sum();
+    }
+
+    @Test
+    void skipTables_skipsTableAndRow() {
+        final var data = """
+                {
+                  "properties": {
+                    "title": "X",
+                    "foo": {
+                      "properties": {
+                        "bar": {
+                          "properties": {
+                            "qux": { "type": "string" }
+                          }
+                        },
+                        "baz": { "type": "string" }
+                      }
+                    }
+                  }
+                }""";
+        final var context = ctx("HTML").add(Context.SKIP_TABLES, "foo__bar");
+        final var root = new JsonDocParser(context).parseString(data);
+        final var res = new HtmlPrinter(root, context).create();
+        assertTrue(res.contains("<td>baz</td>"), "baz " + res);
+        assertFalse(res.contains("<td>bar</td>"), "bar row " + res);
+        assertFalse(res.contains("qux"), "bar table " + res);
+        assertTrue(root.getChild("foo").orElseThrow().getChild("bar").isEmpty(), "not parsed");
+    }
+
+    @Test
+    void skipTables_keepsSchema() {
+        final var data = """
+                {
+                  "properties": {
+                    "foo": {
+                      "properties": {
+                        "bar": { "type": "string" }
+                      }
+                    }
+                  }
+                }""";
+        final var context = ctx("SCHEMA").add(Context.SKIP_TABLES, "foo");
+        final var res = new SchemaPrinter(new JsonDocParser(context).parseString(data)).create();
+        assertTrue(res.contains("bar"), res);
+    }
+
+    @Test
+    void ignore_isNotParsed() {
+        final var data = """
+                {
+                  "properties": {
+                    "foo": {
+                      "ignore-me": { "type": "string", "x-nested": "Q" },
+                      "baz": "Z"
+                    }
+                  }
+                }""";
+        for (final var mode : new String[]{ "HTML", "SCHEMA" }) {
+            final var context = ctx(mode);
+            final var root = new JsonDocParser(context).parseString(data);
+            final var res = "HTML".equals(mode) ? new HtmlPrinter(root, context).create() : new SchemaPrinter(root).create();
+            assertFalse(res.contains("ignore"), mode + " " + res);
+            assertFalse(res.contains("nested"), mode + " " + res);
+        }
+    }
+
+    @Test
+    void xif_excludedSubtreeIsNotParsed() {
+        final var data = """
+                {
+                  "properties": {
+                    "foo": {
+                      "xif-variant": "var1",
+                      "properties": {
+                        "deep": { "properties": { "deeper": { "type": "string" } } }
+                      }
+                    },
+                    "bar": {
+                      "properties": {
+                        "deep": { "properties": { "deeper": { "type": "string" } } }
+                      },
+                      "xif-variant": "var2"
+                    },
+                    "baz": { "xifnot-variant": 2, "type": "string" }
+                  }
+                }""";
+        final var all = new JsonDocParser(ctx("SCHEMA")).parseString(data);
+        final var context = ctx("SCHEMA").add("variant", "var2");
+        final var root = new JsonDocParser(context).parseString(data);
+        final var res = new SchemaPrinter(root).create();
+        assertFalse(res.contains("foo"), "foo " + res);
+        assertTrue(res.contains("bar"), "bar " + res);
+        assertTrue(res.contains("baz"), "baz " + res);
+        assertFalse(res.contains("xif"), "xif " + res);
+        assertTrue(count(root) < count(all), "smaller tree");
+        final var numeric = ctx("HTML").add("variant", "2");
+        final var html = new HtmlPrinter(new JsonDocParser(numeric).parseString(data), numeric).create();
+        assertFalse(html.contains("<td>baz</td>"), "baz " + html);
+    }
+
+    @Test
+    void excludedColumns_areNotParsed() {
+        final var data = """
+                {
+                  "properties": {
+                    "foo": { "type": "string", "x-internal": "Q", "x-public": "R" }
+                  }
+                }""";
+        final var context = ctx("HTML").add(Context.EXCLUDE_COLUMNS, "x-internal");
+        final var root = new JsonDocParser(context).parseString(data);
+        final var foo = root.getChild("foo").orElseThrow();
+        assertTrue(foo.getChild("x-internal").isEmpty(), "x-internal");
+        assertEquals(1, foo.children.stream().filter(n -> n.name.equals("x-public")).count(), "x-public");
+    }
+}
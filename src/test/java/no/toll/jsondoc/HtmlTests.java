@@ -1,7 +1,22 @@
 package no.toll.jsondoc;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class HtmlTests {
@@ -127,4 +142,248 @@ class HtmlTests {
         assertTrue(res.matches("(?s).*ac:link ac:anchor=.foo__bar.*CDATA.bar.*ac:name=.anchor.*foo__bar.*bar.*"),
                 res);
     }
-}
\ No newline at end of file
+
+    private static final String NESTED = """
+                {
+                  "title": "Nested",
+                  "type": "object",
+                  "properties": {
+                    "foo": {
+                      "type": "object",
+                      "properties": {
+                        "bar": {
+                          "type": "object",
+                          "properties": {
+                            "baz": { "type": "string", "description": "deep" },
+                            "qux": { "type": "integer" }
+                          }
+                        }
+                      }
+                    },
+                    "other": { "type": "string" }
+                  }
+                }""";
+
+    @Test
+    void printers_shareTree() {
+        final var context = ctx("HTML").add(Context.EMBED_ROWS, "1");
+        final var root = new JsonDocParser(context).parseString(NESTED);
+        for (final var type : new String[] { "HTML", "WIKI", "MARKDOWN", "GRAPH" }) {
+            final var fresh = JsonDoc.print(type, new JsonDocParser(context).parseString(NESTED), context);
+            assertEquals(fresh, JsonDoc.print(type, root, context), type);
+            assertEquals(fresh, JsonDoc.print(type, root, context), type);
+        }
+    }
+
+    @Test
+    void printers_concurrentRenders() throws Exception {
+        final var context = ctx("HTML").add(Context.EMBED_ROWS, "1");
+        final var root = new JsonDocParser(context).parseString(NESTED);
+        final var types = new String[] { "HTML", "WIKI", "MARKDOWN", "GRAPH" };
+        final List<String> expected = new ArrayList<>();
+        for (final var type : types) expected.add(JsonDoc.print(type, root, context));
+        final List<Future<String>> renders = new ArrayList<>();
+        try (final var pool = Executors.newFixedThreadPool(16)) {
+            for (int i = 0; i < 400; i++) {
+                final var type = types[i % types.length];
+                renders.add(pool.submit(() -> JsonDoc.print(type, root, context)));
+            }
+        }
+        for (int i = 0; i < renders.size(); i++) assertEquals(expected.get(i % types.length), renders.get(i).get());
+    }
+
+    @Test
+    void tree_readOnlyAfterParsing() {
+        final var context = ctx("HTML");
+        final var root = new JsonDocParser(context).parseString(NESTED);
+        assertThrows(IllegalStateException.class, () -> new Node("late", NodeType.Value, root, context));
+        assertThrows(UnsupportedOperationException.class, () -> root.values.add("late"));
+    }
+
+    @Test
+    void all_writesEachFormat() throws IOException {
+        final var schemaFile = TestFiles.makeTempSchema(NESTED);
+        final var outDir = Files.createTempDirectory("jall");
+        final var context = ctx("ALL")
+                .add(Context.OUT_DIR, outDir.toString())
+                .add(Context.FORMATS, "html,markdown,schema");
+        final var files = JsonDoc.renderAll(schemaFile, context);
+        assertEquals(3, files.size());
+        final var html = Files.readString(files.get(0));
+        assertTrue(files.get(0).toString().endsWith(".html"), files.toString());
+        assertEquals(JsonDoc.render("HTML", schemaFile, ctx("HTML")) + System.lineSeparator(), html);
+        assertEquals(JsonDoc.render("MARKDOWN", schemaFile, ctx("MARKDOWN")) + System.lineSeparator(),
+                Files.readString(files.get(1)));
+        assertEquals(JsonDoc.render("SCHEMA", schemaFile, ctx("SCHEMA")) + System.lineSeparator(),
+                Files.readString(files.get(2)));
+    }
+
+    @Test
+    void batch_writesNextToSchemas() throws IOException {
+        final var dir = Files.createTempDirectory("jbatch");
+        Files.createDirectories(dir.resolve("sub"));
+        Files.writeString(dir.resolve("a.json"), NESTED);
+        Files.writeString(dir.resolve("sub/b.json"), NESTED);
+        final var context = ctx("BATCH").add(Context.FORMATS, "markdown,schema");
+        final var results = JsonDocBatch.run(JsonDocBatch.schemas(dir.toString()), context);
+        assertEquals(2, results.size());
+        assertTrue(results.stream().allMatch(JsonDocBatch.Result::isOk), results.toString());
+        assertTrue(Files.exists(dir.resolve("a.md")));
+        assertTrue(Files.exists(dir.resolve("sub/b.schema.json")));
+        // Output from the first run is not taken for input the next time
+        assertEquals(2, JsonDocBatch.schemas(dir.toString()).size());
+        assertTrue(JsonDocBatch.summary(results, 1_000_000).contains("2 schemas, 0 failed, 4 files written"));
+    }
+
+    @Test
+    void batch_readsSchemaNamedLikeOutput() throws IOException {
+        final var dir = Files.createTempDirectory("jbatch");
+        Files.writeString(dir.resolve("foo.schema.json"), NESTED);
+        assertEquals(List.of(dir.resolve("foo.schema.json").toString()), JsonDocBatch.schemas(dir.toString()));
+        final var context = ctx("BATCH").add(Context.FORMATS, "schema");
+        final var results = JsonDocBatch.run(JsonDocBatch.schemas(dir.toString()), context);
+        assertTrue(results.stream().allMatch(JsonDocBatch.Result::isOk), results.toString());
+        assertTrue(Files.exists(dir.resolve("foo.schema.schema.json")));
+        assertEquals(List.of(dir.resolve("foo.schema.json").toString()), JsonDocBatch.schemas(dir.toString()));
+    }
+
+    @Test
+    void batch_walksDirectoryWithCommaAndGzip() throws IOException {
+        final var dir = Files.createDirectories(Files.createTempDirectory("jbatch").resolve("a,b"));
+        Files.writeString(dir.resolve("plain.json"), NESTED);
+        final var bytes = new ByteArrayOutputStream();
+        try (final var out = new GZIPOutputStream(bytes)) { out.write(NESTED.getBytes(StandardCharsets.UTF_8)); }
+        Files.write(dir.resolve("zipped.json.gz"), bytes.toByteArray());
+        final var schemas = JsonDocBatch.schemas(dir.toString());
+        assertEquals(List.of(dir.resolve("plain.json").toString(), dir.resolve("zipped.json.gz").toString()), schemas);
+        final var results = JsonDocBatch.run(schemas, ctx("BATCH").add(Context.FORMATS, "schema"));
+        assertTrue(results.stream().allMatch(JsonDocBatch.Result::isOk), results.toString());
+        assertTrue(Files.exists(dir.resolve("zipped.schema.json")));
+        assertEquals(schemas, JsonDocBatch.schemas(dir.toString()));
+    }
+
+    @Test
+    void batch_manifestWithFailingSchema() throws IOException {
+        final var dir = Files.createTempDirectory("jbatch");
+        final var outDir = Files.createTempDirectory("jbatchout");
+        Files.writeString(dir.resolve("good.json"), NESTED);
+        Files.writeString(dir.resolve("bad.json"), "{ \"properties\": ");
+        final var manifest = dir.resolve("schemas.txt");
+        Files.writeString(manifest, "# catalog\ngood.json\n\nbad.json\n");
+        final var context = ctx("BATCH").add(Context.FORMATS, "html").add(Context.OUT_DIR, outDir.toString());
+        final var results = JsonDocBatch.run(JsonDocBatch.schemas(manifest.toString()), context);
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).isOk(), results.toString());
+        assertFalse(results.get(1).isOk(), results.toString());
+        assertTrue(Files.exists(outDir.resolve("good.html")));
+        assertTrue(JsonDocBatch.summary(results, 1_000_000).contains("FAILED"));
+    }
+
+    @Test
+    void watch_rendersChangedTreesOnly() throws IOException {
+        final var dir = Files.createTempDirectory("jwatch");
+        final var schemaFile = dir.resolve("w.json");
+        Files.writeString(schemaFile, NESTED);
+        final var watcher = new JsonDocWatcher(schemaFile.toString(),
+                ctx("ALL").add(Context.OUT_DIR, dir.toString()).add(Context.FORMATS, "html,schema"));
+        assertEquals(2, watcher.update().size());
+        Files.writeString(schemaFile, NESTED.replace("  ", " ")); // same content, other layout
+        assertEquals(0, watcher.update().size());
+        Files.writeString(schemaFile, NESTED.replace("deep", "deeper"));
+        assertEquals(2, watcher.update().size());
+        assertEquals(1, watcher.changed().size(), watcher.changed().toString());
+        assertTrue(watcher.changed().get(0).endsWith("bar > baz"), watcher.changed().toString());
+        assertTrue(Files.readString(dir.resolve("w.html")).contains("deeper"));
+    }
+
+    @Test
+    void watch_rewritesOnSave() throws IOException {
+        final var dir = Files.createTempDirectory("jwatch");
+        final var schemaFile = dir.resolve("s.json");
+        final var html = dir.resolve("s.html");
+        Files.writeString(schemaFile, NESTED);
+        final var watcher = new JsonDocWatcher(schemaFile.toString(),
+                ctx("ALL").add(Context.OUT_DIR, dir.toString()).add(Context.FORMATS, "html"));
+        watcher.update();
+        Files.writeString(schemaFile, NESTED.replace("deep", "changed"));
+        assertEquals(List.of(html), watcher.update());
+        assertTrue(Files.readString(html).contains("changed"));
+    }
+
+    /** The real WatchService, with platform dependent latency (polling on some) -- run with -DwatchService=true */
+    @Test
+    @EnabledIfSystemProperty(named = "watchService", matches = "true")
+    void watch_rewritesOnSaveFromWatchService() throws Exception {
+        final var dir = Files.createTempDirectory("jwatch");
+        final var schemaFile = dir.resolve("s.json");
+        final var html = dir.resolve("s.html");
+        Files.writeString(schemaFile, NESTED);
+        final var watcher = new JsonDocWatcher(schemaFile.toString(),
+                ctx("ALL").add(Context.OUT_DIR, dir.toString()).add(Context.FORMATS, "html"));
+        final var thread = new Thread(() -> {
+            try { watcher.watch(); }
+            catch (final IOException | InterruptedException ignored) {}
+        });
+        thread.start();
+        try {
+            assertTrue(watcher.awaitWatching(10, TimeUnit.SECONDS));
+            Files.writeString(schemaFile, NESTED.replace("deep", "changed"));
+            final long until = System.currentTimeMillis() + 60_000;
+            while (!Files.readString(html).contains("changed") && System.currentTimeMillis() < until) Thread.sleep(10);
+            assertTrue(Files.readString(html).contains("changed"));
+        }
+        finally {
+            thread.interrupt();
+            thread.join();
+        }
+    }
+
+    private static String wide(final int properties) {
+        final List<String> props = new ArrayList<>();
+        for (int i = 0; i < properties; i++)
+            props.add("\"p" + i + "\": { \"type\": \"string\", \"description\": \"Property " + i + "\" }");
+        return "{ \"title\": \"Wide\", \"properties\": { " + String.join(", ", props) + " } }";
+    }
+
+    @Test
+    void print_writesInChunks() throws IOException {
+        final var context = ctx("HTML");
+        final var root = new JsonDocParser(context).parseString(wide(2_000));
+        final List<Integer> chunks = new ArrayList<>();
+        final var out = new StringBuilder();
+        new HtmlPrinter(root, context).print(new Appendable() {
+            @Override public Appendable append(final CharSequence s) { chunks.add(s.length()); out.append(s); return this; }
+            @Override public Appendable append(final CharSequence s, final int from, final int to) { return append(s.subSequence(from, to)); }
+            @Override public Appendable append(final char c) { return append(String.valueOf(c)); }
+        });
+        assertEquals(new HtmlPrinter(root, context).create(), out.toString());
+        assertTrue(chunks.size() > 1, chunks.toString());
+        assertTrue(chunks.stream().allMatch(n -> n < 2 * Sink.CHUNK), chunks.toString());
+    }
+
+    @Test
+    void print_toFile() throws IOException {
+        final var context = ctx("MARKDOWN");
+        final var root = new JsonDocParser(context).parseString(NESTED);
+        final var file = Files.createTempFile("jout", ".md");
+        file.toFile().deleteOnExit();
+        Files.writeString(file, "longer content, to be replaced ".repeat(1_000));
+        JsonDoc.print("MARKDOWN", root, context, file);
+        assertEquals(new MarkdownPrinter(root).create() + System.lineSeparator(), Files.readString(file));
+    }
+
+    @Test
+    void print_reportsWriteErrors() {
+        final var context = ctx("HTML");
+        final var root = new JsonDocParser(context).parseString(wide(2_000));
+        final var failing = new java.io.Writer() {
+            @Override public void write(final char[] buf, final int off, final int len) throws IOException {
+                throw new IOException("disk full");
+            }
+            @Override public void flush() {}
+            @Override public void close() {}
+        };
+        final var e = assertThrows(IOException.class, () -> new HtmlPrinter(root, context).print(failing));
+        assertEquals("disk full", e.getMessage());
+    }
+}
@@ -0,0 +1,144 @@
+package no.toll.jsondoc;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ServerTests {
+
+    static final String SCHEMA = """
+                {
+                  "$schema": "https://json-schema.org/draft/2020-12/schema",
+                  "title": "Served",
+                  "type": "object",
+                  "properties": {
+                    "foo": {
+                      "type": "string",
+                      "description": "fox",
+                      "x-note": "only in docs"
+                    },
+                    "bar": {
+                      "type": "integer",
+                      "description": "box"
+                    }
+                  },
+                  "required": [
+                    "foo"
+                  ]
+                }""";
+
+    private static JsonDocServer server;
+    private static String base;
+    private static final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeAll
+    static void beforeAll() throws IOException {
+        final var schemaFile = TestFiles.makeTempSchema(SCHEMA);
+        server = new JsonDocServer(schemaFile, new Context("SERVE").add(Context.PORT, "0"));
+        base = "http://localhost:" + server.start() + "/";
+    }
+
+    @AfterAll
+    static void afterAll() { server.stop(); }
+
+    static HttpResponse<String> get(final String uri) throws IOException, InterruptedException {
+        return client.send(HttpRequest.newBuilder(URI.create(uri)).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static HttpResponse<String> post(final String uri, final String body)
+            throws IOException, InterruptedException {
+        final var request = HttpRequest.newBuilder(URI.create(uri))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    void serve_rendersDocumentation() throws Exception {
+        final var html = get(base + "html");
+        assertEquals(200, html.statusCode());
+        assertTrue(html.body().contains("<td>foo</td>"), html.body());
+        final var schema = get(base + "schema");
+        assertEquals(200, schema.statusCode());
+        assertTrue(schema.body().contains("\"foo\""), schema.body());
+        assertFalse(schema.body().contains("x-note"), schema.body());
+    }
+
+    @Test
+    void serve_appliesQueryDefinitions() throws Exception {
+        final var html = get(base + "html?excludeColumns=x-note");
+        assertFalse(html.body().contains("only in docs"), html.body());
+    }
+
+    @Test
+    void serve_validatesRequestBody() throws Exception {
+        assertEquals(200, post(base + "validate", "{ \"foo\": \"a\", \"bar\": 1 }").statusCode());
+        final var bad = post(base + "validate", "{ \"foo\": \"a\", \"bar\": \"one\" }");
+        assertEquals(422, bad.statusCode(), bad.body());
+    }
+
+    @Test
+    void serve_concurrentRendersOfCachedTree() throws Exception {
+        final var paths = new String[] { "html", "markdown", "graph", "schema" };
+        final List<String> expected = new ArrayList<>();
+        for (final var path : paths) expected.add(get(base + path).body());
+        final List<Future<HttpResponse<String>>> responses = new ArrayList<>();
+        try (final var pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 200; i++) {
+                final var path = paths[i % paths.length];
+                responses.add(pool.submit(() -> get(base + path)));
+            }
+        }
+        for (int i = 0; i < responses.size(); i++) {
+            assertEquals(200, responses.get(i).get().statusCode());
+            assertEquals(expected.get(i % paths.length), responses.get(i).get().body());
+        }
+    }
+
+    @Test
+    void serve_unknownTypeIsNotFound() throws Exception {
+        assertEquals(404, get(base + "nonsense").statusCode());
+    }
+
+    @Test
+    void serve_refusesOtherDefinitionsAndFiles() throws Exception {
+        assertEquals(400, get(base + "html?cache=/tmp").statusCode());
+        assertEquals(400, get(base + "html?schema=/etc/passwd").statusCode());
+        assertEquals(400, post(base + "validate?files=/etc/passwd", "").statusCode());
+    }
+
+    @Test
+    void serve_resolvesFilesBelowRoot() throws Exception {
+        final var schemaFile = Path.of(TestFiles.makeTempSchema(SCHEMA));
+        final var data = Files.writeString(schemaFile.resolveSibling(schemaFile.getFileName() + ".data.json"),
+                                           "{ \"foo\": \"a\" }");
+        data.toFile().deleteOnExit();
+        final var rooted = new JsonDocServer(schemaFile.toString(), new Context("SERVE")
+                .add(Context.PORT, "0").add(Context.ROOT, schemaFile.getParent().toString()));
+        final var at = "http://localhost:" + rooted.start() + "/";
+        try {
+            assertEquals(200, get(at + "html?schema=" + schemaFile.getFileName()).statusCode());
+            assertEquals(404, get(at + "html?schema=missing.json").statusCode());
+            assertEquals(400, get(at + "html?schema=../x.json").statusCode());
+            final var valid = post(at + "validate?files=" + data.getFileName(), "");
+            assertEquals(200, valid.statusCode(), valid.body());
+        }
+        finally { rooted.stop(); }
+    }
+}
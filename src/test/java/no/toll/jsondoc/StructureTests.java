@@ -688,4 +688,167 @@ class StructureTests {
         final var res = runHtml(data);
         // FIXME fail();
     }
-}
\ No newline at end of file
+
+    @Test
+    void snapshot_loadsSameTree() throws java.io.IOException {
+        final var data = """
+                {
+                  "title": "Snap",
+                  "description": "Top",
+                  "properties": {
+                    "foo": { "type": "string", "maxLength": 10, "x-note": "note", "enum": [ "a", "b" ] },
+                    "bar": { "type": "number", "minimum": 1.5, "default": true },
+                    "baz": { "type": "object", "properties": { "qux": { "type": "integer", "xif-variant": "x" } } }
+                  },
+                  "required": [ "foo" ]
+                }""";
+        final var schemaFile = TestFiles.makeTempSchema(data);
+        final var cacheDir = java.nio.file.Files.createTempDirectory("jsnap");
+        for (final var mode : new String[] { "HTML", "SCHEMA" }) {
+            final var plain = new JsonDocParser(ctx(mode)).parseFile(schemaFile);
+            final var context = ctx(mode).add(Context.CACHE, cacheDir.toString());
+            final var stored = new JsonDocParser(context).parseFile(schemaFile);
+            final var snapshots = TreeSnapshot.of(context).get();
+            final var loaded = snapshots.lookup(snapshots.key(java.nio.file.Path.of(schemaFile))).get();
+            assertEquals(plain.fingerprint(), stored.fingerprint());
+            assertEquals(plain.fingerprint(), loaded.fingerprint());
+            assertEquals(new DebugPrinter(plain).create(), new DebugPrinter(loaded).create());
+            assertEquals(JsonDoc.print(mode, plain, context), JsonDoc.print(mode, loaded, context));
+        }
+        assertEquals(2, java.nio.file.Files.list(cacheDir).count());
+        // Other definitions, other tree
+        final var variant = ctx("HTML").add(Context.CACHE, cacheDir.toString()).add(Context.VARIANT, "y");
+        assertTrue(TreeSnapshot.of(variant).get().lookup(
+                TreeSnapshot.of(variant).get().key(java.nio.file.Path.of(schemaFile))).isEmpty());
+    }
+
+    private static final String STREAMED = """
+                {
+                  "title": "Streamed",
+                  "properties": { "foo": { "type": "string", "description": "from a stream" } }
+                }""";
+
+    private static byte[] gzip(final String data) throws java.io.IOException {
+        final var bytes = new java.io.ByteArrayOutputStream();
+        try (final var out = new java.util.zip.GZIPOutputStream(bytes)) {
+            out.write(data.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    void parse_gzippedStreamAndFile() throws java.io.IOException {
+        final var expected = runHtml(STREAMED);
+        final var context = ctx("HTML");
+        final var fromStream = new JsonDocParser(context).parse(new java.io.ByteArrayInputStream(gzip(STREAMED)));
+        assertEquals(expected, new HtmlPrinter(fromStream, context).create());
+        final var gzFile = java.nio.file.Files.createTempFile("jdoc", ".json.gz");
+        gzFile.toFile().deleteOnExit();
+        java.nio.file.Files.write(gzFile, gzip(STREAMED));
+        assertEquals(expected, JsonDoc.render("HTML", gzFile.toString(), context));
+    }
+
+    @Test
+    void parse_stdin() {
+        final var stdin = System.in;
+        try {
+            System.setIn(new java.io.ByteArrayInputStream(STREAMED.getBytes(java.nio.charset.StandardCharsets.UTF_8)));
+            assertEquals(runHtml(STREAMED), JsonDoc.render("HTML", JsonDocParser.STDIN, ctx("HTML")));
+        }
+        finally { System.setIn(stdin); }
+    }
+
+    @Test
+    void paths_followMovedNodes() {
+        final var data = """
+                {
+                  "title": "Top",
+                  "properties": {
+                    "foo": { "properties": { "b'ar": { "properties": { "b(az)": { "type": "string" } } } } }
+                  }
+                }""";
+        final var root = new JsonDocParser(ctx("HTML")).parseString(data);
+        final var baz = root.getChild("foo").orElseThrow().getChild("b'ar").orElseThrow().getChild("b(az)").orElseThrow();
+        for (int i = 0; i < 2; i++) { // computed, then kept
+            assertEquals("foo > bar > b(az)", baz.qName());
+            assertEquals("foo__b_ar__b_az_", baz.extId());
+            assertEquals(Node.extId(java.util.List.of("", "foo", "b'ar", "b(az)")), baz.extId());
+            assertEquals(4, baz.level());
+            assertEquals("Top", root.displayName());
+            assertEquals("_", root.extId());
+        }
+    }
+
+    @Test
+    void qName_trimmedAsAWhole() {
+        final var data = """
+                { "properties": { " foo": { "properties": { "bar ": { "properties": { "baz ": { "type": "string" } } } } } } }""";
+        final var root = new JsonDocParser(ctx("HTML")).parseString(data);
+        final var foo = root.getChild(" foo").orElseThrow();
+        final var baz = foo.getChild("bar ").orElseThrow().getChild("baz ").orElseThrow();
+        assertEquals("foo", foo.qName());
+        assertEquals("foo > bar  > baz", baz.qName());
+    }
+
+    @Test
+    void getChild_indexFollowsChanges() {
+        final var context = ctx("HTML");
+        final var wide = new Node("wide", NodeType.Object, new Node("", NodeType.Object, null, context), context);
+        for (int i = 0; i < 40; i++) new Node("p" + (i % 30), NodeType.Object, wide, context);
+        assertSame(wide.children.get(3), wide.getChild("p3").orElseThrow(), "first of repeated");
+        assertTrue(wide.getChild("p40").isEmpty());
+        final var added = new Node("p40", NodeType.Object, wide, context);
+        assertSame(added, wide.getChild("p40").orElseThrow(), "index dropped on add");
+    }
+
+    @Test
+    void views_keptOnceFrozen() {
+        final var root = new JsonDocParser(ctx("HTML")).parseString("""
+                {
+                  "properties": {
+                    "foo": { "type": "string", "x-note": "n" },
+                    "bar": { "properties": { "baz": { "type": "integer" } } }
+                  }
+                }""");
+        assertSame(root.rows(), root.rows());
+        assertSame(root.subTables(), root.subTables());
+        assertSame(root.columns(), root.columns(root.children));
+        assertEquals(java.util.List.of("foo", "bar"), root.rows().stream().map(n -> n.name).toList());
+        assertTrue(root.subTables().stream().anyMatch(n -> n.name.equals("bar")));
+        assertTrue(root.columns().contains("x-note"), root.columns().toString());
+    }
+
+    @Test
+    void values_sharedAndReadOnly() {
+        final var root = new JsonDocParser(ctx("SCHEMA")).parseString("""
+                {
+                  "properties": {
+                    "foo": { "type": "string" },
+                    "bar": { "type": "string" }
+                  }
+                }""");
+        final var props = root.getChild("properties").orElseThrow();
+        final var foo = props.getChild("foo").orElseThrow().getChild("type").orElseThrow();
+        final var bar = props.getChild("bar").orElseThrow().getChild("type").orElseThrow();
+        assertSame(foo.values.first(), bar.values.first());
+        assertThrows(UnsupportedOperationException.class, () -> foo.values.add("x"));
+        assertFalse(props.values.isNonEmpty());
+        assertEquals(java.util.List.of(), props.values.all());
+    }
+
+    @Test
+    void sink_cleansJsonAcrossChunks() throws java.io.IOException {
+        final var json = "{\n  \"a\": [\n    1,\n    2,\n\n  ],\n  \"b\": \"x, ] y\",\n\n\n  \"c\": {\n  },\n},";
+        final var expected = json.replaceAll("(?s),(\\s*[\\]\\[}])", "$1").replaceAll("\n\n+", "\n");
+        final var whole = new StringBuilder();
+        final var sink = new Sink(whole, true);
+        sink.append(json);
+        sink.flush();
+        assertEquals(expected, whole.toString());
+        final var byChar = new StringBuilder();
+        final var charSink = new Sink(byChar, true);
+        for (final var c : json.toCharArray()) charSink.append(c);
+        charSink.flush();
+        assertEquals(expected, byChar.toString());
+    }
+}
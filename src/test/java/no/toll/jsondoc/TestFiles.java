@@ -0,0 +1,23 @@
+package no.toll.jsondoc;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+
+/** Temporary files for the tests. */
+final class TestFiles {
+    private TestFiles() {}
+
+    /** Write the text (a schema or a data document) to a temporary .json file, deleted on exit. */
+    static String makeTempSchema(final String data) {
+        try {
+            final var file = Files.createTempFile("jschema", ".json");
+            file.toFile().deleteOnExit();
+            Files.writeString(file, data);
+            return file.toString();
+        }
+        catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
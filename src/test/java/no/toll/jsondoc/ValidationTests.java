@@ -1,7 +1,25 @@
 package no.toll.jsondoc;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonToken;
+import net.jimblackler.jsonschemafriend.GenerationException;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -28,39 +46,36 @@ class ValidationTests {
                 }""";
 
     @Test
-    void validation_non_strict_ok() {
+    void validation_non_strict_ok() throws GenerationException {
         final var data = """
                 {
                   "foo": "bad",
                   "bar": 1,
                   "baz": "bam"
                 }""";
-        final var schemaFile = GeneralJSONValidator.makeTempSchema(simpleSchema);
-        final var result = new GeneralJSONValidator().validateString(schemaFile, data);
+        final var result = new GeneralJSONValidator().validateString(CompiledSchema.parse(simpleSchema), data);
         assertTrue(result.isOk(), result.toString());
     }
 
     @Test
-    void validation_failsOnWrongType() {
+    void validation_failsOnWrongType() throws GenerationException {
         final var data = """
                 {
                   "foo": "bad",
                   "bar": "one",
                   "baz": "bam"
                 }""";
-        final var schemaFile = GeneralJSONValidator.makeTempSchema(simpleSchema);
-        final var result = new GeneralJSONValidator().validateString(schemaFile, data);
+        final var result = new GeneralJSONValidator().validateString(CompiledSchema.parse(simpleSchema), data);
         assertFalse(result.isOk(), result.toString());
     }
 
     @Test
-    void validation_failsOnMissingRequired() {
+    void validation_failsOnMissingRequired() throws GenerationException {
         final var data = """
                 {
                   "bar": 1
                 }""";
-        final var schemaFile = GeneralJSONValidator.makeTempSchema(simpleSchema);
-        final var result = new GeneralJSONValidator().validateString(schemaFile, data);
+        final var result = new GeneralJSONValidator().validateString(CompiledSchema.parse(simpleSchema), data);
         assertFalse(result.isOk(), result.toString());
     }
 
@@ -72,12 +87,498 @@ class ValidationTests {
                   "bar": 1,
                   "baz": "bam"
                 }""";
-        final var schemaFile = GeneralJSONValidator.makeTempSchema(simpleSchema);
-        final var dataFile = GeneralJSONValidator.makeTempSchema(data);
+        final var schemaFile = TestFiles.makeTempSchema(simpleSchema);
+        final var dataFile = TestFiles.makeTempSchema(data);
         final var context = new Context("VALIDATE")
                 .add(Context.STRICT, "true")
                 .add(Context.FILES, dataFile);
         final var result = GeneralJSONValidator.validate(schemaFile, context);
         assertFalse(result.isOk(), result.toString());
     }
-}
\ No newline at end of file
+
+    @Test
+    void validation_parallelReportsInInputOrder() {
+        final var schemaFile = TestFiles.makeTempSchema(simpleSchema);
+        final var files = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            final var data = (i % 3 == 0)? "{ \"foo\": \"x\", \"bar\": \"one\" }" : "{ \"foo\": \"x\", \"bar\": 1 }";
+            if (i > 0) files.append(',');
+            files.append(TestFiles.makeTempSchema(data));
+        }
+        final var sequential = GeneralJSONValidator.validate(schemaFile,
+                new Context("VALIDATE").add(Context.FILES, files.toString()));
+        for (final var threads : new String[] { "4", Context.VIRTUAL }) {
+            final var parallel = GeneralJSONValidator.validate(schemaFile,
+                    new Context("VALIDATE").add(Context.FILES, files.toString()).add(Context.THREADS, threads));
+            assertEquals(sequential.isOk(), parallel.isOk(), threads);
+            assertEquals(sequential.toString(), parallel.toString(), threads);
+        }
+    }
+
+    private static String linesFile(final String... lines) throws IOException {
+        final Path file = Files.createTempFile("jdata", ".jsonl");
+        file.toFile().deleteOnExit();
+        Files.write(file, List.of(lines));
+        return file.toString();
+    }
+
+    @Test
+    void validation_jsonLinesReportsLineNumbers() throws Exception {
+        final var dataFile = linesFile(
+                "{ \"foo\": \"a\", \"bar\": 1 }",
+                "",
+                "{ \"foo\": \"b\", \"bar\": \"one\" }",
+                "{ \"foo\": \"c\", \"bar\": 3 }");
+        final var result = new GeneralJSONValidator().validateFile(CompiledSchema.parse(simpleSchema), dataFile);
+        assertFalse(result.isOk(), result.toString());
+        assertTrue(result.toString().contains("line 3: "), result.toString());
+        assertFalse(result.toString().contains("line 1: "), result.toString());
+    }
+
+    @Test
+    void validation_jsonLinesStopsAtMaxLineErrors() throws Exception {
+        final var bad = "{ \"foo\": \"b\", \"bar\": \"one\" }";
+        final var dataFile = linesFile(bad, bad, bad, bad, bad);
+        final var context = new Context("VALIDATE").add(Context.MAX_LINE_ERRORS, "2");
+        final var result = new GeneralJSONValidator(context).validateFile(CompiledSchema.parse(simpleSchema), dataFile);
+        assertFalse(result.isOk(), result.toString());
+        assertTrue(result.toString().contains("line 2: "), result.toString());
+        assertFalse(result.toString().contains("line 3: "), result.toString());
+    }
+
+    @Test
+    void files_expandsDirectoriesAndGlobs() throws IOException {
+        final Path dir = Files.createTempDirectory("jdata");
+        Files.createDirectories(dir.resolve("sub/deeper"));
+        for (final var name : List.of("a.json", "b.txt", "sub/c.json", "sub/deeper/d.json"))
+            Files.writeString(dir.resolve(name), "{}");
+
+        final var all = InputFiles.expand(dir.toString()).map(f -> Path.of(f).getFileName().toString()).sorted().toList();
+        assertEquals(List.of("a.json", "b.txt", "c.json", "d.json"), all);
+        final var globbed = InputFiles.expand(dir + "/**/*.json").map(f -> Path.of(f).getFileName().toString())
+                .sorted().toList();
+        assertEquals(List.of("a.json", "c.json", "d.json"), globbed);
+        final var shallow = InputFiles.expand(dir + "/sub/*.json, " + dir + "/b.txt")
+                .map(f -> Path.of(f).getFileName().toString()).toList();
+        assertEquals(List.of("c.json", "b.txt"), shallow);
+    }
+
+    @Test
+    void files_globWithoutBaseMatchesTopLevel() {
+        final var matcher = InputFiles.matcher("**/*.json");
+        assertTrue(matcher.test(Path.of("a.json")));
+        assertTrue(matcher.test(Path.of("sub/deeper/d.json")));
+        assertFalse(matcher.test(Path.of("b.txt")));
+    }
+
+    @Test
+    void options_badNumbersAreRefused() {
+        assertTrue(JsonDoc.badNumber(new Context("VALIDATE").add(Context.THREADS, "4")
+                .add(Context.MAX_ERRORS, "0").add(Context.MAX_LINE_ERRORS, "1")).isEmpty());
+        assertTrue(JsonDoc.badNumber(new Context("VALIDATE").add(Context.THREADS, Context.VIRTUAL)).isEmpty());
+        for (final var threads : List.of("abc", "0", "-2"))
+            assertTrue(JsonDoc.badNumber(new Context("VALIDATE").add(Context.THREADS, threads)).isPresent(), threads);
+        assertTrue(JsonDoc.badNumber(new Context("VALIDATE").add(Context.MAX_ERRORS, "-1")).isPresent());
+        assertTrue(JsonDoc.badNumber(new Context("VALIDATE").add(Context.MAX_LINE_ERRORS, "x")).isPresent());
+    }
+
+    @Test
+    void files_noMatchFails() {
+        final var schemaFile = TestFiles.makeTempSchema(simpleSchema);
+        final var context = new Context("VALIDATE").add(Context.FILES, "/no/such/dir/**/*.json");
+        final var result = GeneralJSONValidator.validate(schemaFile, context);
+        assertFalse(result.isOk(), result.toString());
+    }
+
+    private static String dataFiles(final int count, final String data) {
+        final var files = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) files.append(',');
+            files.append(TestFiles.makeTempSchema(data));
+        }
+        return files.toString();
+    }
+
+    @Test
+    void validation_failFastStopsAtFirstFailure() {
+        final var schemaFile = TestFiles.makeTempSchema(simpleSchema);
+        final var files = dataFiles(10, "{ \"foo\": \"x\", \"bar\": \"one\" }");
+        for (final var threads : new String[] { null, "2", Context.VIRTUAL }) {
+            final var context = new Context("VALIDATE").add(Context.FILES, files).add(Context.FAIL_FAST, "true");
+            if (threads != null) context.add(Context.THREADS, threads);
+            final var result = GeneralJSONValidator.validate(schemaFile, context);
+            assertFalse(result.isOk(), result.toString());
+            assertTrue(result.toString().contains(Context.FAIL_FAST), result.toString());
+            if (threads == null) assertEquals(2, result.size(), result.toString()); // one file + stop reason
+        }
+    }
+
+    @Test
+    void validation_maxErrorsLimitsMessages() {
+        final var schemaFile = TestFiles.makeTempSchema(simpleSchema);
+        final var files = dataFiles(10, "{ \"foo\": \"x\", \"bar\": \"one\" }");
+        for (final var threads : new String[] { null, "3" }) {
+            final var context = new Context("VALIDATE").add(Context.FILES, files).add(Context.MAX_ERRORS, "3");
+            if (threads != null) context.add(Context.THREADS, threads);
+            final var result = GeneralJSONValidator.validate(schemaFile, context);
+            assertFalse(result.isOk(), result.toString());
+            assertTrue(result.size() <= 4, result.toString()); // 3 + stop reason
+            assertTrue(result.toString().contains(Context.MAX_ERRORS), result.toString());
+        }
+    }
+
+    @Test
+    void mmap_readsAcrossWindows() throws IOException {
+        final var data = "{ \"foo\": \"abcdefghijklmnopqrstuvwxyz\", \"bar\": 12345 }";
+        final var file = Path.of(TestFiles.makeTempSchema(data));
+        try (final var in = MappedInputStream.open(file, 7)) {
+            assertEquals(data, new String(in.readAllBytes()));
+        }
+    }
+
+    @Test
+    void validation_mmap() {
+        final var schemaFile = TestFiles.makeTempSchema(simpleSchema);
+        final var good = TestFiles.makeTempSchema("{ \"foo\": \"x\", \"bar\": 1 }");
+        final var bad = TestFiles.makeTempSchema("{ \"foo\": \"x\", \"bar\": \"one\" }");
+        final var okContext = new Context("VALIDATE").add(Context.FILES, good).add(Context.MMAP, "true");
+        assertTrue(GeneralJSONValidator.validate(schemaFile, okContext).isOk());
+        final var badContext = new Context("VALIDATE").add(Context.FILES, bad).add(Context.MMAP, "true");
+        assertFalse(GeneralJSONValidator.validate(schemaFile, badContext).isOk());
+    }
+
+    @Test
+    void cache_reusesStoredResults() throws IOException {
+        final var schemaFile = TestFiles.makeTempSchema(simpleSchema);
+        final var cacheDir = Files.createTempDirectory("jcache");
+        final var good = TestFiles.makeTempSchema("{ \"foo\": \"x\", \"bar\": 1 }");
+        final var bad = TestFiles.makeTempSchema("{ \"foo\": \"x\", \"bar\": \"one\" }");
+        final var context = new Context("VALIDATE").add(Context.FILES, good + "," + bad)
+                .add(Context.CACHE, cacheDir.toString());
+        final var first = GeneralJSONValidator.validate(schemaFile, context);
+        try (final var entries = Files.list(cacheDir)) {
+            // one per data file, and the parsed schema
+            assertEquals(List.of(".entry", ".entry", ".tree"),
+                    entries.map(p -> p.toString().replaceAll("^.*(\\.[a-z]+)$", "$1")).sorted().toList());
+        }
+        final var second = GeneralJSONValidator.validate(schemaFile, context);
+        assertEquals(first.toString(), second.toString());
+
+        Files.writeString(Path.of(bad), "{ \"foo\": \"x\", \"bar\": 2 }"); // fixed, so no longer a hit
+        assertTrue(GeneralJSONValidator.validate(schemaFile, context).isOk());
+    }
+
+    @Test
+    void cache_evictsStaleTmpFiles() throws IOException {
+        final var cacheDir = Files.createTempDirectory("jcache");
+        final var stale = Files.writeString(cacheDir.resolve("a.tmp"), "left by a failed write");
+        Files.setLastModifiedTime(stale, FileTime.fromMillis(System.currentTimeMillis() - 2 * 60 * 60 * 1000L));
+        final var writing = Files.writeString(cacheDir.resolve("b.tmp"), "being written");
+        ValidationCache.of(new Context("VALIDATE").add(Context.CACHE, cacheDir.toString()))
+                .orElseThrow()
+                .evict();
+        assertFalse(Files.exists(stale));
+        assertTrue(Files.exists(writing));
+    }
+
+    @Test
+    void cache_evictsWhenFull() throws IOException {
+        final var schemaFile = TestFiles.makeTempSchema(simpleSchema);
+        final var cacheDir = Files.createTempDirectory("jcache");
+        final var context = new Context("VALIDATE")
+                .add(Context.FILES, dataFiles(5, "{ \"foo\": \"x\", \"bar\": 1 }"))
+                .add(Context.CACHE, cacheDir.toString())
+                .add(Context.CACHE_MAX_MB, "0");
+        assertTrue(GeneralJSONValidator.validate(schemaFile, context).isOk());
+        try (final var entries = Files.list(cacheDir)) { assertEquals(0, entries.count()); }
+    }
+
+    private String report(final String type, final String files) {
+        final var schemaFile = TestFiles.makeTempSchema(simpleSchema);
+        final var context = new Context("VALIDATE").add(Context.FILES, files).add(Context.REPORT, type);
+        final var out = new StringWriter();
+        GeneralJSONValidator.validate(schemaFile, context, ValidationReport.of(context, out));
+        return out.toString();
+    }
+
+    @Test
+    void report_json() throws IOException {
+        final var good = TestFiles.makeTempSchema("{ \"foo\": \"x\", \"bar\": 1 }");
+        final var bad = TestFiles.makeTempSchema("{ \"foo\": \"x\", \"bar\": \"one\" }");
+        final var json = new JsonFactory().createParser(report("json", good + "," + bad));
+        final List<String> fields = new ArrayList<>();
+        while (json.nextToken() != null) // must be well formed
+            if (json.currentToken() == JsonToken.FIELD_NAME) fields.add(json.getText());
+        assertEquals(List.of("schema", "files", "file", "ok", "messages", "file", "ok", "messages",
+                             "ok", "fileCount", "failures", "messages"), fields);
+        assertTrue(report("json", good + "," + bad).contains("\"fileCount\":2,\"failures\":1"));
+        final var lines = report("json", good + "," + bad).split("\n");
+        assertEquals(4, lines.length); // one line per file
+        assertTrue(lines[0].endsWith("\"files\":["), lines[0]);
+        assertTrue(lines[1].startsWith("{\"file\":") && lines[1].endsWith("},"), lines[1]);
+        assertTrue(lines[3].startsWith("],\"ok\":false"), lines[3]);
+    }
+
+    @Test
+    void report_junit() {
+        final var good = TestFiles.makeTempSchema("{ \"foo\": \"x\", \"bar\": 1 }");
+        final var bad = TestFiles.makeTempSchema("{ \"foo\": \"x\", \"bar\": \"one\" }");
+        final var xml = report("junit", good + "," + bad);
+        assertTrue(xml.contains("<testcase classname=\"VALIDATE\" name=\"" + good + "\"/>"), xml);
+        assertEquals(1, xml.split("<failure ").length - 1, xml);
+        assertTrue(xml.endsWith("</testsuite>\n"));
+    }
+
+    @Test
+    void report_textListsFailuresAndSummary() {
+        final var good = TestFiles.makeTempSchema("{ \"foo\": \"x\", \"bar\": 1 }");
+        final var bad = TestFiles.makeTempSchema("{ \"foo\": \"x\", \"bar\": \"one\" }");
+        final var text = report("text", good + "," + bad);
+        assertFalse(text.contains(good), text);
+        assertTrue(text.startsWith(bad + ":\n"), text);
+        assertTrue(text.endsWith("failed: 1 of 2 files\n"), text);
+        assertEquals("ok\n", report("text", good));
+    }
+
+    @Test
+    void report_withThreadsWritesWhileSubmitting() throws GenerationException {
+        final var schemaFile = TestFiles.makeTempSchema(simpleSchema);
+        final var files = List.of(dataFiles(40, "{ \"foo\": \"x\", \"bar\": \"one\" }").split(","));
+        final var context = new Context("VALIDATE").add(Context.REPORT, "text").add(Context.THREADS, "2");
+        final var submitted = new AtomicInteger();
+        final List<Integer> submittedAtWrite = new ArrayList<>();
+        final var out = new StringWriter() {
+            @Override public void flush() { submittedAtWrite.add(submitted.get()); }
+        };
+        final var report = ValidationReport.of(context, out);
+        report.start(schemaFile);
+        report.finish(GeneralJSONValidator.validate(GeneralJSONValidator.compile(schemaFile, context),
+                files.stream().peek(f -> submitted.incrementAndGet()), schemaFile, context, report::file, "none"));
+        assertTrue(submittedAtWrite.get(0) < files.size(), submittedAtWrite.toString());
+        final var written = out.toString().lines().filter(l -> !l.startsWith(" ")).toList();
+        assertEquals(files.stream().map(f -> f + ":").toList(), written.subList(0, files.size()));
+        assertEquals("failed: 40 of 40 files", written.get(written.size() - 1));
+    }
+
+    @Test
+    void stats_recordsEachFile() throws IOException {
+        final var schemaFile = TestFiles.makeTempSchema(simpleSchema);
+        final var statsFile = Files.createTempFile("jstats", ".json");
+        statsFile.toFile().deleteOnExit();
+        final var context = new Context("VALIDATE")
+                .add(Context.FILES, dataFiles(12, "{ \"foo\": \"x\", \"bar\": 1 }"))
+                .add(Context.STATS_FILE, statsFile.toString());
+        assertTrue(GeneralJSONValidator.validate(schemaFile, context).isOk());
+        final var json = new JsonFactory().createParser(statsFile.toFile());
+        final List<String> fields = new ArrayList<>();
+        int files = -1;
+        while (json.nextToken() != null) {
+            if (json.currentToken() != JsonToken.FIELD_NAME) continue;
+            fields.add(json.getText());
+            if ("files".equals(json.getText()) && json.nextToken() != null) files = json.getIntValue();
+        }
+        assertEquals(12, files);
+        assertEquals(ValidationStats.SLOWEST, fields.stream().filter("readUs"::equals).count());
+        assertTrue(fields.containsAll(List.of("filesPerSec", "mbPerSec", "p50Us", "p95Us", "p99Us")), fields.toString());
+    }
+
+    @Test
+    void stats_percentiles() {
+        final var stats = new ValidationStats();
+        for (int i = 1; i <= 100; i++) stats.record(new FileStats("f" + i, 10, 0, i * 1_000L, 0));
+        assertEquals(51_000, stats.percentile(50));
+        assertEquals(96_000, stats.percentile(95));
+        assertEquals(100_000, stats.percentile(99));
+        assertEquals("f100", stats.slowest().get(0).file());
+        assertEquals(ValidationStats.SLOWEST, stats.slowest().size());
+    }
+
+    private final String keywordSchema = """
+                {
+                  "$schema": "https://json-schema.org/draft/2020-12/schema",
+                  "type": "object",
+                  "properties": {
+                    "name": { "type": "string", "minLength": 2, "maxLength": 5, "pattern": "^[a-z]+$" },
+                    "count": { "type": "integer", "minimum": 1, "exclusiveMaximum": 10 },
+                    "kind": { "enum": [ "a", "b", 3, null ] },
+                    "version": { "const": 2 },
+                    "tags": { "type": "array", "minItems": 1, "maxItems": 2, "items": { "$ref": "#/$defs/tag" } }
+                  },
+                  "required": [ "name", "count" ],
+                  "additionalProperties": false,
+                  "$defs": {
+                    "tag": { "type": "string" }
+                  }
+                }""";
+
+    private ValidationResult streaming(final String schema, final String data) throws GenerationException {
+        final var context = new Context("VALIDATE").add(Context.ENGINE, StreamingValidator.ENGINE);
+        return new GeneralJSONValidator(context).validateString(CompiledSchema.parse(schema, context), data);
+    }
+
+    @Test
+    void streaming_acceptsValid() throws GenerationException {
+        final var data = """
+                { "name": "abc", "count": 9, "kind": 3.0, "version": 2.0, "tags": [ "x", "y" ] }""";
+        final var result = streaming(keywordSchema, data);
+        assertTrue(result.isOk(), result.toString());
+        assertTrue(streaming(keywordSchema, "{ \"name\": \"ab\", \"count\": 1, \"kind\": null }").isOk());
+    }
+
+    @Test
+    void streaming_reportsEachKeyword() throws GenerationException {
+        final var data = """
+                { "name": "ABCDEF", "count": 10, "kind": "c", "version": 3, "tags": [ 1, "y", "z" ], "extra": {} }""";
+        final var result = streaming(keywordSchema, data);
+        assertFalse(result.isOk());
+        assertEquals(List.of(
+                "$.name: length 6, maxLength is 5",
+                "$.name: does not match pattern ^[a-z]+$",
+                "$.count: 10 is not less than exclusiveMaximum 10",
+                "$.kind: not one of [a, b, 3, null]",
+                "$.version: must be 2",
+                "$.tags[0]: expected string, found integer",
+                "$.tags: 3 items, maxItems is 2",
+                "$.extra: no value allowed"), result.messages());
+    }
+
+    @Test
+    void streaming_requiredAndTypes() throws GenerationException {
+        final var result = streaming(keywordSchema, "{ \"count\": 1.5 }");
+        assertEquals(List.of("$.count: expected integer, found number",
+                             "$: required property name is missing"), result.messages());
+        assertEquals(List.of("$: expected object, found array"), streaming(keywordSchema, "[]").messages());
+        assertFalse(streaming(keywordSchema, "{ \"name\": ").isOk());
+        final var valid = "{ \"name\": \"ab\", \"count\": 1 }";
+        assertEquals(List.of("$: trailing content after the document"),
+                     streaming(keywordSchema, valid + " garbage").messages());
+        assertEquals(List.of("$: trailing content after the document"),
+                     streaming(keywordSchema, valid + " {}").messages());
+    }
+
+    @Test
+    void streaming_requiredButUndeclared() throws GenerationException {
+        final var schema = "{ \"required\": [ \"x\" ], \"additionalProperties\": false }";
+        assertEquals(List.of("$.x: no value allowed"), streaming(schema, "{ \"x\": 1 }").messages());
+        assertEquals(List.of("$: required property x is missing"), streaming(schema, "{}").messages());
+    }
+
+    @Test
+    void streaming_skipsAdditionalBesideUncheckedKeywords() throws GenerationException {
+        final var schema = """
+                { "properties": { "id": { "type": "integer" } },
+                  "patternProperties": { "^x-": { "type": "string" } },
+                  "additionalProperties": false }""";
+        assertTrue(streaming(schema, "{ \"id\": 1, \"x-note\": \"a\" }").isOk());
+        assertEquals(List.of("$.id: expected integer, found string"),
+                     streaming(schema, "{ \"id\": \"1\" }").messages());
+        final var strict = "{ \"properties\": { \"id\": {} }, \"additionalProperties\": false }";
+        assertFalse(streaming(strict, "{ \"id\": 1, \"x-note\": \"a\" }").isOk());
+    }
+
+    @Test
+    void streaming_prefixItemsBeforeItems() throws GenerationException {
+        final var schema = "{ \"prefixItems\": [ { \"type\": \"string\" }, true ], \"items\": false }";
+        assertTrue(streaming(schema, "[ \"a\" ]").isOk());
+        assertTrue(streaming(schema, "[ \"a\", { } ]").isOk());
+        assertEquals(List.of("$[0]: expected string, found integer", "$[2]: no value allowed"),
+                     streaming(schema, "[ 1, 2, 3 ]").messages());
+    }
+
+    @Test
+    void streaming_unknownTypeNotChecked() throws GenerationException {
+        final var schema = "{ \"properties\": { \"n\": { \"type\": [ \"int\", \"null\" ], \"minimum\": 1 } } }";
+        assertTrue(streaming(schema, "{ \"n\": 2 }").isOk());
+        assertEquals(List.of("$.n: 0 is less than minimum 1"), streaming(schema, "{ \"n\": 0 }").messages());
+    }
+
+    @Test
+    void streaming_comparesObjectsAndArraysInEnum() throws GenerationException {
+        final var schema = """
+                { "properties": {
+                    "p": { "enum": [ { "x": 1, "y": [ "a", null ] }, [ 1, 2 ] ] },
+                    "q": { "const": { "k": "v" }, "properties": { "k": { "maxLength": 0 } } } } }""";
+        assertTrue(streaming(schema, "{ \"p\": { \"y\": [ \"a\", null ], \"x\": 1.0 } }").isOk());
+        assertTrue(streaming(schema, "{ \"p\": [ 1, 2 ] }").isOk());
+        assertFalse(streaming(schema, "{ \"p\": { \"x\": 1 } }").isOk());
+        assertFalse(streaming(schema, "{ \"p\": [ 2, 1 ] }").isOk());
+        assertFalse(streaming(schema, "{ \"p\": null }").isOk());
+        assertEquals(List.of("$.q.k: length 1, maxLength is 0"),
+                     streaming(schema, "{ \"q\": { \"k\": \"v\" } }").messages());
+        assertEquals(List.of("$.q: must be {k=v}"), streaming(schema, "{ \"q\": { } }").messages());
+    }
+
+    @Test
+    void streaming_stopsAtMaxLineErrors() throws GenerationException {
+        final var context = new Context("VALIDATE").add(Context.ENGINE, StreamingValidator.ENGINE)
+                .add(Context.MAX_LINE_ERRORS, "3");
+        final var data = "{ \"name\": \"ab\", \"count\": 1, \"tags\": [ 1, 2, 3, 4, 5, 6 ] }";
+        final var result = new GeneralJSONValidator(context).validateString(CompiledSchema.parse(keywordSchema, context), data);
+        assertEquals(4, result.messages().size(), result.toString());
+        assertEquals("Stopped after 3 messages", result.messages().get(3));
+    }
+
+    @Test
+    void streaming_largeFile() throws IOException {
+        final var schema = """
+                { "type": "object",
+                  "properties": { "rows": { "type": "array", "items": {
+                      "type": "object", "properties": { "id": { "type": "integer", "minimum": 0 } } } } } }""";
+        final var dataFile = Files.createTempFile("jbig", ".json");
+        dataFile.toFile().deleteOnExit();
+        try (final var out = Files.newBufferedWriter(dataFile)) {
+            out.write("{ \"rows\": [\n");
+            for (int i = 0; i < 100_000; i++) out.write("{ \"id\": " + (i == 76_543 ? -1 : i) + ", \"text\": \"lorem\" },\n");
+            out.write("{ \"id\": 0 } ] }\n");
+        }
+        final var context = new Context("VALIDATE").add(Context.ENGINE, StreamingValidator.ENGINE)
+                .add(Context.FILES, dataFile.toString());
+        final var result = GeneralJSONValidator.validate(TestFiles.makeTempSchema(schema), context);
+        assertFalse(result.isOk());
+        assertTrue(result.toString().contains("$.rows[76543].id: -1 is less than minimum 0"), result.toString());
+    }
+
+    @Test
+    void native_recursiveRefAndAlias() throws GenerationException {
+        final var schema = """
+                { "$ref": "#/$defs/tree",
+                  "$defs": { "tree": { "type": "object", "required": [ "id" ],
+                      "properties": { "id": { "type": "integer" },
+                                      "children": { "type": "array", "items": { "$ref": "#/$defs/tree" } } } } } }""";
+        final var data = "{ \"id\": 1, \"children\": [ { \"id\": 2 }, { \"children\": [ { \"id\": \"x\" } ] } ] }";
+        final var context = new Context("VALIDATE").add(Context.ENGINE, StreamingValidator.ENGINE_ALIAS);
+        final var result = new GeneralJSONValidator(context).validateString(CompiledSchema.parse(schema, context), data);
+        assertEquals(List.of("$.children[1].children[0].id: expected integer, found string",
+                             "$.children[1]: required property id is missing"), result.messages());
+    }
+
+    @Test
+    void engine_sharedAcrossThreads() throws Exception {
+        final var schema = JsonDocEngine.compile(Path.of(TestFiles.makeTempSchema(keywordSchema)),
+                Map.of(Context.ENGINE, StreamingValidator.ENGINE));
+        final var good = "{ \"name\": \"abc\", \"count\": 2 }".getBytes();
+        final var bad = "{ \"name\": \"abc\", \"count\": 20 }".getBytes();
+        final List<Future<ValidationResult>> results = new ArrayList<>();
+        try (final var pool = Executors.newFixedThreadPool(8)) {
+            for (int i = 0; i < 400; i++) {
+                final var data = i % 2 == 0 ? good : bad;
+                results.add(pool.submit(() -> schema.validate(new ByteArrayInputStream(data))));
+            }
+        }
+        for (int i = 0; i < results.size(); i++) {
+            final var result = results.get(i).get();
+            assertEquals(i % 2 == 0, result.isOk(), result.toString());
+            assertEquals(i % 2 == 0 ? 0 : 1, result.messages().size());
+        }
+    }
+
+    @Test
+    void engine_validateAll() throws GenerationException {
+        final var schema = JsonDocEngine.compile(Path.of(TestFiles.makeTempSchema(simpleSchema)), Map.of());
+        final var files = dataFiles(3, "{ \"foo\": \"x\", \"bar\": 1 }");
+        final var result = schema.validateAll(Stream.of(files.split(",")).map(Path::of));
+        assertTrue(result.isOk(), result.toString());
+        assertTrue(schema.validate(Path.of(files.split(",")[0])).isOk());
+        assertFalse(schema.validateAll(Stream.empty()).isOk());
+    }
+}